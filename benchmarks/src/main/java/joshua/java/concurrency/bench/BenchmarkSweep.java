@@ -0,0 +1,38 @@
+package joshua.java.concurrency.bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs the benchmarks once per thread count and writes each run's results as JSON, one file per thread count:
+ * [outputDir]/[label]/threads-[n].json. Keep the files of each release and compare them with any JMH result viewer,
+ * or by diffing the "primaryMetric" scores of the same benchmark and params.
+ * <p/>
+ * Usage: java -cp benchmarks.jar joshua.java.concurrency.bench.BenchmarkSweep [label] [threads,...] [outputDir] [include regexp]
+ * defaults: label "current", threads "1,2,4,8", outputDir "jmh-results", every benchmark.
+ */
+public class BenchmarkSweep {
+
+    public static void main(String[] args) throws RunnerException {
+        String label = args.length > 0 ? args[0] : "current";
+        String threads = args.length > 1 ? args[1] : "1,2,4,8";
+        File dir = new File(args.length > 2 ? args[2] : "jmh-results", label);
+        String include = args.length > 3 ? args[3] : "joshua\\.java\\.concurrency\\..*Benchmark";
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IllegalStateException("Can't create " + dir);
+        for (String t : threads.split(",")) {
+            int n = Integer.parseInt(t.trim());
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(include)
+                    .threads(n)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(dir, "threads-" + n + ".json").getPath());
+            new Runner(options.build()).run();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package joshua.java.concurrency.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Key sequences for the benchmarks, drawn up front so the sampling cost stays out of the measurement.
+ * <p/>
+ * UNIFORM spreads accesses evenly over the key space; ZIPFIAN(exponent 0.99, as in YCSB) sends most of them to a few
+ * hot keys, which is where contention on one lock or one cache entry shows up.
+ */
+public enum KeyDistribution {
+    UNIFORM {
+        @Override
+        int[] sample(int keySpace, int n, Random rnd) {
+            int[] keys = new int[n];
+            for (int i = 0; i < n; i++)
+                keys[i] = rnd.nextInt(keySpace);
+            return keys;
+        }
+    },
+    ZIPFIAN {
+        @Override
+        int[] sample(int keySpace, int n, Random rnd) {
+            /*inverse transform sampling over the cumulative distribution of rank^-s.*/
+            double[] cdf = new double[keySpace];
+            double sum = 0;
+            for (int i = 0; i < keySpace; i++)
+                cdf[i] = sum += 1 / Math.pow(i + 1, EXPONENT);
+            int[] keys = new int[n];
+            for (int i = 0; i < n; i++) {
+                int k = Arrays.binarySearch(cdf, rnd.nextDouble() * sum);
+                keys[i] = Math.min(k < 0 ? -k - 1 : k, keySpace - 1);
+            }
+            return keys;
+        }
+    };
+
+    private static final double EXPONENT = 0.99;
+
+    /**
+     * @return n keys in [0, keySpace)
+     */
+    abstract int[] sample(int keySpace, int n, Random rnd);
+
+    /**
+     * @param seed keys of different threads should differ, pass e.g. a per-thread counter.
+     */
+    public int[] sample(int keySpace, int n, long seed) {
+        return sample(keySpace, n, new Random(seed));
+    }
+}
@@ -0,0 +1,86 @@
+package joshua.java.concurrency.chap4;
+
+import joshua.java.concurrency.bench.KeyDistribution;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MonitorVehicleTracker under a mix of point reads and updates, and the cost of a full snapshot, which copies every
+ * location while holding the tracker's lock.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MonitorVehicleTrackerBenchmark {
+
+    @Param({"100", "10000"})
+    int vehicles;
+
+    MonitorVehicleTracker tracker;
+
+    String[] ids;
+
+    @Setup
+    public void setUp() {
+        Map<String, MutablePoint> locations = new HashMap<String, MutablePoint>();
+        ids = new String[vehicles];
+        for (int i = 0; i < vehicles; i++) {
+            ids[i] = "vehicle-" + i;
+            locations.put(ids[i], new MutablePoint());
+        }
+        tracker = new MonitorVehicleTracker(locations);
+    }
+
+    /**
+     * point operations of one thread, the parameters only apply to mixed().
+     */
+    @State(Scope.Thread)
+    public static class Ops {
+        private static final AtomicInteger SEEDS = new AtomicInteger();
+
+        @Param({"UNIFORM", "ZIPFIAN"})
+        KeyDistribution distribution;
+
+        /*percentage of point operations which are reads, the rest are updates.*/
+        @Param({"50", "90", "99"})
+        int readPercent;
+
+        int[] keys;
+        boolean[] reads;
+        int next;
+
+        @Setup
+        public void setUp(MonitorVehicleTrackerBenchmark b) {
+            int seed = SEEDS.incrementAndGet();
+            keys = distribution.sample(b.vehicles, 1 << 16, seed);
+            reads = new boolean[keys.length];
+            Random rnd = new Random(~seed);
+            for (int i = 0; i < reads.length; i++)
+                reads[i] = rnd.nextInt(100) < readPercent;
+        }
+    }
+
+    @Benchmark
+    public Object mixed(Ops ops) {
+        int i = ops.next++ & (ops.keys.length - 1);
+        String id = ids[ops.keys[i]];
+        if (ops.reads[i])
+            return tracker.getLcation(id);
+        tracker.setLocation(id, i, -i);
+        return id;
+    }
+
+    @Benchmark
+    public void snapshot(Blackhole bh) {
+        bh.consume(tracker.getLocations());
+    }
+}
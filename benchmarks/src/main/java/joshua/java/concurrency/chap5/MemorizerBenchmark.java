@@ -0,0 +1,74 @@
+package joshua.java.concurrency.chap5;
+
+import joshua.java.concurrency.bench.KeyDistribution;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Memorizer against computing every time, for a function costing "work" units of cpu. A fresh cache is used for each
+ * iteration, so the misses filling it are part of what is measured, and a small key space mostly measures hits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemorizerBenchmark {
+
+    @Param({"memorizer", "uncached"})
+    String impl;
+
+    @Param({"1000", "1000000"})
+    int keySpace;
+
+    @Param({"UNIFORM", "ZIPFIAN"})
+    KeyDistribution distribution;
+
+    @Param({"1000"})
+    int work;
+
+    Computable<Integer, Integer> function;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        Computable<Integer, Integer> expensive = new Computable<Integer, Integer>() {
+            @Override
+            public Integer compute(Integer arg) {
+                Blackhole.consumeCPU(work);
+                return arg;
+            }
+        };
+        if ("memorizer".equals(impl))
+            function = new Memorizer<Integer, Integer>(expensive);
+        else if ("uncached".equals(impl))
+            function = expensive;
+        else
+            throw new IllegalArgumentException("impl: " + impl);
+    }
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private static final AtomicInteger SEEDS = new AtomicInteger();
+
+        Integer[] keys;
+        int next;
+
+        @Setup
+        public void setUp(MemorizerBenchmark b) {
+            int[] sampled = b.distribution.sample(b.keySpace, 1 << 16, SEEDS.incrementAndGet());
+            /*boxed up front, so the lookups don't measure Integer.valueOf().*/
+            keys = new Integer[sampled.length];
+            for (int i = 0; i < sampled.length; i++)
+                keys[i] = sampled[i];
+        }
+    }
+
+    @Benchmark
+    public Integer compute(Keys keys) throws InterruptedException {
+        return function.compute(keys.keys[keys.next++ & (keys.keys.length - 1)]);
+    }
+}
@@ -0,0 +1,103 @@
+package joshua.java.concurrency.chap7;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * WorkStealingCancellingExecutor against the shared-queue CancellingExecutor on many short tasks. Each operation
+ * runs a batch of them to completion:
+ * 1) external: the benchmark thread submits every task;
+ * 2) fanOut: a tree of tasks, each submitting its children from inside the pool, the way WebCrawler's tasks submit
+ * the links they found, so the work-stealing executor can keep them on the submitting worker.
+ * Scores are batches per millisecond, multiply by batch size(or fan-out tree size) for tasks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecutorBenchmark {
+
+    private static final int BATCH = 1000;
+
+    /*FANOUT^DEPTH leaf tasks, 4681 tasks in all.*/
+    private static final int FANOUT = 8;
+    private static final int DEPTH = 4;
+
+    @Param({"ThreadPoolExecutor", "WorkStealing"})
+    String executor;
+
+    @Param({"1", "4"})
+    int parallelism;
+
+    /*cpu units spent by each task.*/
+    @Param({"100"})
+    int work;
+
+    ExecutorService exec;
+
+    @Setup
+    public void setUp() {
+        if ("ThreadPoolExecutor".equals(executor))
+            exec = new NonStandardCancellation().new CancellingExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+        else if ("WorkStealing".equals(executor))
+            exec = new WorkStealingCancellingExecutor(parallelism);
+        else
+            throw new IllegalArgumentException("executor: " + executor);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        exec.shutdownNow();
+        exec.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public void external() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(BATCH);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                Blackhole.consumeCPU(work);
+                done.countDown();
+            }
+        };
+        for (int i = 0; i < BATCH; i++)
+            exec.execute(task);
+        done.await();
+    }
+
+    @Benchmark
+    public void fanOut() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicInteger pending = new AtomicInteger(1);
+
+        class Node implements Runnable {
+            private final int depth;
+
+            Node(int depth) {
+                this.depth = depth;
+            }
+
+            @Override
+            public void run() {
+                Blackhole.consumeCPU(work);
+                if (depth < DEPTH) {
+                    pending.addAndGet(FANOUT);
+                    for (int i = 0; i < FANOUT; i++)
+                        exec.execute(new Node(depth + 1));
+                }
+                if (pending.decrementAndGet() == 0)
+                    done.countDown();
+            }
+        }
+
+        exec.execute(new Node(0));
+        done.await();
+    }
+}
@@ -0,0 +1,81 @@
+package joshua.java.concurrency.chap7;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.*;
+
+/**
+ * Rate at which a consumer takes from a producer thread, for the queues PrimeProducer could be given: a bounded
+ * array, a bounded linked list, and a direct hand-off.
+ * <p/>
+ * The producer has PrimeProducer's loop and cancellation, but puts a counter: nextProbablePrime() would take far
+ * longer than a put() or take(), and the score would be that of BigInteger rather than of the queue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrimeProducerBenchmark {
+
+    @Param({"ArrayBlockingQueue", "LinkedBlockingQueue", "SynchronousQueue"})
+    String queueType;
+
+    @Param({"1024"})
+    int capacity;
+
+    BlockingQueue<Long> queue;
+
+    CountingProducer producer;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        if ("ArrayBlockingQueue".equals(queueType))
+            queue = new ArrayBlockingQueue<Long>(capacity);
+        else if ("LinkedBlockingQueue".equals(queueType))
+            queue = new LinkedBlockingQueue<Long>(capacity);
+        else if ("SynchronousQueue".equals(queueType))
+            queue = new SynchronousQueue<Long>();
+        else
+            throw new IllegalArgumentException("queueType: " + queueType);
+        producer = new CountingProducer(queue);
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws InterruptedException {
+        producer.cancel();
+        producer.join();
+    }
+
+    @Benchmark
+    public Long take() throws InterruptedException {
+        return queue.take();
+    }
+
+    static class CountingProducer extends Thread {
+
+        private final BlockingQueue<Long> queue;
+
+        CountingProducer(BlockingQueue<Long> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long n = 0;
+                while (!Thread.currentThread().isInterrupted())
+                    queue.put(n++);
+            } catch (InterruptedException ex) {
+                /*allow thread to exit*/
+            }
+        }
+
+        public void cancel() {
+            interrupt();
+        }
+    }
+}
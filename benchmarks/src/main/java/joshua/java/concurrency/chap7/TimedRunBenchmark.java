@@ -0,0 +1,54 @@
+package joshua.java.concurrency.chap7;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of the TimedRun solutions for a task finishing well within its timeout: Solution2 starts a thread per call,
+ * Solution3 hands the task to a pooled thread and waits on its Future.
+ * <p/>
+ * Solution1 is left out on purpose: its scheduled interrupt hits the calling thread even after the task completed,
+ * which here would be a JMH worker thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimedRunBenchmark {
+
+    @Param({"Solution2", "Solution3"})
+    String solution;
+
+    /*cpu units spent by the task.*/
+    @Param({"0", "10000"})
+    int work;
+
+    TimedRun timedRun;
+
+    Runnable task;
+
+    @Setup
+    public void setUp() {
+        if ("Solution2".equals(solution))
+            timedRun = new Solution2();
+        else if ("Solution3".equals(solution))
+            timedRun = new Solution3();
+        else
+            throw new IllegalArgumentException("solution: " + solution);
+        task = new Runnable() {
+            @Override
+            public void run() {
+                Blackhole.consumeCPU(work);
+            }
+        };
+    }
+
+    @Benchmark
+    public void timeRun() throws InterruptedException {
+        timedRun.timeRun(task, 10, TimeUnit.SECONDS);
+    }
+}
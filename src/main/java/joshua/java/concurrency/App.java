@@ -1,10 +1,115 @@
 package joshua.java.concurrency;
 
+import joshua.java.concurrency.load.LoadGenerator;
+import joshua.java.concurrency.load.MemorizerWorkload;
+import joshua.java.concurrency.load.TimedRunWorkload;
+import joshua.java.concurrency.load.TrackerWorkload;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 /**
- * Hello world!
+ * Load generator: runs mixed workloads against the library's components at fixed arrival rates, and prints the
+ * throughput and the p50/p99/p99.9 latencies of each operation, corrected for coordinated omission(see LoadGenerator).
+ * <p/>
+ * Usage: java -cp target/classes:jcip-annotations.jar joshua.java.concurrency.App [--option=value ...]
  */
 public class App {
-    public static void main(String[] args) {
-        System.out.println("Hello World!");
+
+    private static final String[][] OPTIONS = {
+            {"workloads", "tracker,memorizer,timedrun", "workloads to run, comma separated"},
+            {"duration", "30", "seconds recorded"},
+            {"warmup", "5", "seconds run before recording"},
+            {"threads", "4", "threads issuing the operations of each workload"},
+            {"seed", "42", "random seed"},
+            {"tracker-rate", "20000", "tracker operations per second"},
+            {"vehicles", "1000", "vehicles in the tracker"},
+            {"snapshot-percent", "1", "share of tracker operations which are snapshots, the others are updates"},
+            {"memorizer-rate", "20000", "memorizer lookups per second"},
+            {"keys", "100000", "memorizer key space"},
+            {"zipf", "0.99", "Zipf exponent of the memorizer keys, 0 for uniform"},
+            {"compute-micros", "50", "cpu time of a memorizer miss"},
+            {"timedrun-rate", "200", "timed runs per second"},
+            {"solution", "3", "TimedRun solution, 2 or 3"},
+            {"task-millis", "5", "mean duration of a timed task, exponentially distributed"},
+            {"timeout-millis", "20", "timeout of a timed run"},
+    };
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options;
+        LoadGenerator generator;
+        try {
+            options = parse(args);
+            if (options == null) {
+                usage();
+                return;
+            }
+            generator = configure(options);
+        } catch (IllegalArgumentException e) {/*NumberFormatException included*/
+            System.err.println(e.getMessage());
+            usage();
+            System.exit(2);
+            return;
+        }
+        System.out.printf("running %s for %s s after %s s of warmup%n", options.get("workloads"),
+                options.get("duration"), options.get("warmup"));
+        generator.run();
+        generator.printReport(System.out);
+        /*the TimedRun solutions keep static, non-daemon pools alive.*/
+        System.exit(0);
+    }
+
+    private static LoadGenerator configure(Map<String, String> options) {
+        int threads = Integer.parseInt(options.get("threads"));
+        LoadGenerator generator = new LoadGenerator(Long.parseLong(options.get("warmup")),
+                Long.parseLong(options.get("duration")), TimeUnit.SECONDS, Long.parseLong(options.get("seed")));
+        for (String w : options.get("workloads").split(",")) {
+            if ("tracker".equals(w)) {
+                generator.add(new TrackerWorkload(Integer.parseInt(options.get("vehicles")),
+                                Double.parseDouble(options.get("snapshot-percent"))),
+                        Double.parseDouble(options.get("tracker-rate")), threads);
+            } else if ("memorizer".equals(w)) {
+                generator.add(new MemorizerWorkload(Integer.parseInt(options.get("keys")),
+                                Double.parseDouble(options.get("zipf")),
+                                TimeUnit.MICROSECONDS.toNanos(Long.parseLong(options.get("compute-micros")))),
+                        Double.parseDouble(options.get("memorizer-rate")), threads);
+            } else if ("timedrun".equals(w)) {
+                generator.add(new TimedRunWorkload(Integer.parseInt(options.get("solution")),
+                                Long.parseLong(options.get("task-millis")), Long.parseLong(options.get("timeout-millis")),
+                                TimeUnit.MILLISECONDS),
+                        Double.parseDouble(options.get("timedrun-rate")), threads);
+            } else {
+                throw new IllegalArgumentException("Unknown workload: " + w);
+            }
+        }
+        return generator;
+    }
+
+    /**
+     * @return option values, defaults included, or null if help was asked for.
+     */
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String[] o : OPTIONS)
+            options.put(o[0], o[1]);
+        for (String arg : args) {
+            if ("--help".equals(arg) || "-h".equals(arg))
+                return null;
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0)
+                throw new IllegalArgumentException("Expected --option=value: " + arg);
+            String name = arg.substring(2, eq);
+            if (!options.containsKey(name))
+                throw new IllegalArgumentException("Unknown option: " + name);
+            options.put(name, arg.substring(eq + 1));
+        }
+        return options;
+    }
+
+    private static void usage() {
+        System.err.println("Usage: App [--option=value ...]");
+        for (String[] o : OPTIONS)
+            System.err.printf("  --%-18s %s (default %s)%n", o[0], o[2], o[1]);
     }
 }
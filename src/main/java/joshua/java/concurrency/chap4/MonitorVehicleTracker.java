@@ -5,6 +5,7 @@ package joshua.java.concurrency.chap4;
  */
 
 
+import joshua.java.concurrency.jfr.SnapshotLockEvent;
 import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 
@@ -31,8 +32,20 @@ public class MonitorVehicleTracker {
         this.locations = locations;
     }
 
+    /**
+     * the time the lock is held for the copy is recorded as a SnapshotLockEvent.
+     */
     public synchronized Map<String, MutablePoint> getLocations() {
-        return deepCopy(locations);
+        SnapshotLockEvent event = new SnapshotLockEvent();
+        event.begin();
+        Map<String, MutablePoint> snapshot = deepCopy(locations);
+        event.end();
+        if (event.shouldCommit()) {
+            event.setTrackerClass(getClass());
+            event.setVehicles(locations.size());
+            event.commit();
+        }
+        return snapshot;
     }
 
     public synchronized MutablePoint getLcation(String id) {
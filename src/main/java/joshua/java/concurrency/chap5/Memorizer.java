@@ -1,5 +1,7 @@
 package joshua.java.concurrency.chap5;
 
+import joshua.java.concurrency.jfr.CancellationEvent;
+import joshua.java.concurrency.jfr.MemorizerLoadEvent;
 import joshua.java.concurrency.utils.UtilityHelper;
 
 import java.util.concurrent.*;
@@ -49,7 +51,7 @@ public class Memorizer<A, V> implements Computable<A, V> {
                 f = cache.putIfAbsent(arg, ft);
                 if(f==null){
                     f=ft;
-                    ft.run();
+                    load(arg, ft);
                 }
             }
             try{
@@ -59,6 +61,12 @@ public class Memorizer<A, V> implements Computable<A, V> {
                     remove the Future object from cache if it detects the computation was cancelled.
                  */
                 cache.remove(arg,f);
+                CancellationEvent event = new CancellationEvent();
+                if (event.shouldCommit()) {
+                    event.setSource("Memorizer.compute");
+                    event.setAction(CancellationEvent.TASK_CANCELLED);
+                    event.commit();
+                }
             } catch (ExecutionException e) {
             /*
                 Whatever the task code may throw((Tasks described by Callable can throw checked and unchecked exception, as well errors by which any code can throw.),
@@ -69,4 +77,34 @@ public class Memorizer<A, V> implements Computable<A, V> {
         }
     }
 
+    /**
+     * run the computation of a missing value, recorded as a MemorizerLoadEvent.
+     */
+    private void load(A arg, FutureTask<V> ft) {
+        MemorizerLoadEvent event = new MemorizerLoadEvent();
+        event.begin();
+        ft.run();/*never throws, the outcome is kept in the Future.*/
+        event.end();
+        if (event.shouldCommit()) {
+            event.setKey(String.valueOf(arg));
+            event.setFailed(failed(ft));
+            event.commit();
+        }
+    }
+
+    private static boolean failed(Future<?> f) {
+        try {
+            f.get();
+            return false;
+        } catch (ExecutionException e) {
+            return true;
+        } catch (CancellationException e) {
+            return true;
+        } catch (InterruptedException e) {
+            /*f is done, get() doesn't block: the interrupt was pending, keep it for the caller.*/
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
 }
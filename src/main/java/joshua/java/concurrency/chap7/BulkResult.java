@@ -0,0 +1,71 @@
+package joshua.java.concurrency.chap7;
+
+import net.jcip.annotations.Immutable;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of one StoppingThreadBasedService.bulkExecute() call. Tasks are identified by their index in the submitted list,
+ * each index is in exactly one of results, failures and unfinished.
+ *
+ * @param <T> result type of the tasks
+ */
+@Immutable
+public class BulkResult<T> {
+
+    private final Map<Integer, T> results;
+
+    private final Map<Integer, Throwable> failures;
+
+    private final List<Integer> unfinished;
+
+    private final long elapsedNanos;
+
+    BulkResult(Map<Integer, T> results, Map<Integer, Throwable> failures, List<Integer> unfinished, long elapsedNanos) {
+        this.results = Collections.unmodifiableMap(results);
+        this.failures = Collections.unmodifiableMap(failures);
+        this.unfinished = Collections.unmodifiableList(unfinished);
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return results of the tasks which completed normally, by task index.
+     */
+    public Map<Integer, T> getResults() {
+        return results;
+    }
+
+    /**
+     * @return exceptions thrown by the tasks which failed, by task index.
+     */
+    public Map<Integer, Throwable> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return indexes of the tasks cancelled at the deadline or never started, in ascending order.
+     */
+    public List<Integer> getUnfinished() {
+        return unfinished;
+    }
+
+    public long getElapsed(TimeUnit unit) {
+        return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return finished tasks(completed or failed) per second over the whole call.
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : (results.size() + failures.size()) * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d completed, %d failed, %d unfinished in %d ms (%.1f tasks/s)",
+                results.size(), failures.size(), unfinished.size(), getElapsed(TimeUnit.MILLISECONDS), getThroughput());
+    }
+}
@@ -0,0 +1,207 @@
+package joshua.java.concurrency.chap7;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free cuckoo filter: a probabilistic FingerprintSet using 2 bytes per entry which, unlike a Bloom filter,
+ * supports removal(WebCrawler's markUnCrawled()).
+ * <p/>
+ * Each entry keeps a 16-bit tag of the fingerprint in one of two candidate buckets of 4 slots. A bucket is packed into
+ * one long, so every insert or removal is a single compareAndSet on that bucket, and add() checks both buckets before
+ * inserting, the way putIfAbsent does. The two buckets are read apart, so the first one is read again afterwards: an
+ * entry moved between them in the meantime is never missed.
+ * <p/>
+ * Trade-offs of the probabilistic set:
+ * 1) false positives: a fingerprint never added may look present with probability about 8 / 2^16(~0.012%), that URL
+ * is then never crawled;
+ * 2) when both buckets are full, resident entries are moved to their alternate buckets, at most MAX_KICKS deep, each
+ * move copying the entry before clearing it. When no chain has room, the filter is full: add() throws
+ * IllegalStateException rather than report a new fingerprint as present, so a filter sized too small is noticed
+ * instead of silently skipping URLs;
+ * 3) two threads adding the same fingerprint may still insert it in different buckets, when slots are freed or entries
+ * moved between their reads. After inserting, add() looks at the other bucket: if the fingerprint is there too, the
+ * copy in the higher bucket is taken back and its add() starts over(then finds the other copy), so exactly one add()
+ * returns true. Removal must only be used for fingerprints which were added.
+ */
+@ThreadSafe
+public class ConcurrentCuckooFilter implements FingerprintSet {
+
+    private static final int SLOTS = 4;
+
+    private static final int TAG_BITS = 16;
+
+    private static final long TAG_MASK = (1L << TAG_BITS) - 1;
+
+    /*load factor at which the filter is sized, below the ~95% reachable with 4-slot buckets.*/
+    private static final double LOAD_FACTOR = 0.9;
+
+    /*longest chain of entries moved to make room for one insert.*/
+    private static final int MAX_KICKS = 3;
+
+    private final AtomicLongArray buckets;
+
+    private final int mask;
+
+    /**
+     * @param expectedEntries number of fingerprints the filter should hold without saturating.
+     */
+    public ConcurrentCuckooFilter(long expectedEntries) {
+        long wanted = Math.max(1, (long) Math.ceil(expectedEntries / (SLOTS * LOAD_FACTOR)));
+        if (wanted > 1 << 30)
+            throw new IllegalArgumentException("Too many entries: " + expectedEntries);
+        int n = Integer.highestOneBit((int) wanted);
+        if (n < wanted)
+            n <<= 1;
+        buckets = new AtomicLongArray(n);
+        mask = n - 1;
+    }
+
+    @Override
+    public boolean add(long fingerprint) {
+        int tag = tag(fingerprint);
+        int i1 = index(fingerprint);
+        int i2 = alternate(i1, tag);
+        while (true) {
+            long w1 = buckets.get(i1);
+            long w2 = buckets.get(i2);
+            if (buckets.get(i1) != w1)
+                continue;/*an entry may have moved from i2 to i1 between the reads*/
+            if (find(w1, tag) >= 0 || find(w2, tag) >= 0)
+                return false;
+            int slot = find(w1, 0);
+            if (slot >= 0) {
+                if (buckets.compareAndSet(i1, w1, with(w1, slot, tag)) && keepInserted(i1, i2, tag))
+                    return true;
+                continue;
+            }
+            slot = find(w2, 0);
+            if (slot >= 0) {
+                if (buckets.compareAndSet(i2, w2, with(w2, slot, tag)) && keepInserted(i2, i1, tag))
+                    return true;
+                continue;
+            }
+            if (makeRoom(i1, MAX_KICKS) || makeRoom(i2, MAX_KICKS))
+                continue;
+            throw new IllegalStateException("Filter is full, capacity " + (long) SLOTS * buckets.length() + " slots");
+        }
+    }
+
+    @Override
+    public boolean remove(long fingerprint) {
+        int tag = tag(fingerprint);
+        int i1 = index(fingerprint);
+        int i2 = alternate(i1, tag);
+        while (true) {
+            if (removeTag(i1, tag) || removeTag(i2, tag))
+                return true;
+            /*missed only if it was moving from i2 to i1 meanwhile.*/
+            if (!contains(i1, i2, tag))
+                return false;
+        }
+    }
+
+    @Override
+    public boolean contains(long fingerprint) {
+        int tag = tag(fingerprint);
+        int i1 = index(fingerprint);
+        return contains(i1, alternate(i1, tag), tag);
+    }
+
+    private boolean contains(int i1, int i2, int tag) {
+        while (true) {
+            long w1 = buckets.get(i1);
+            long w2 = buckets.get(i2);
+            if (buckets.get(i1) == w1)
+                return find(w1, tag) >= 0 || find(w2, tag) >= 0;
+        }
+    }
+
+    /**
+     * called after inserting tag in bucket i, settles a concurrent insert of the same tag in its other bucket j: the
+     * copy in the lower bucket stays, the one in the higher bucket is removed. The removal may hit our own copy while
+     * makeRoom() moves it to j instead, makeRoom() then takes the moved copy back as well.
+     *
+     * @return true if the inserted copy stays, false if it was removed and the insert must start over.
+     */
+    private boolean keepInserted(int i, int j, int tag) {
+        if (i <= j || find(buckets.get(j), tag) < 0)
+            return true;
+        removeTag(i, tag);
+        return false;
+    }
+
+    /**
+     * free a slot in bucket i by moving one of its entries to that entry's alternate bucket, recursively making room
+     * there first, at most depth levels deep. An entry is copied before it is cleared, so it never looks absent.
+     *
+     * @return true if a slot may be free now(the caller retries), false if no chain within depth has room.
+     */
+    private boolean makeRoom(int i, int depth) {
+        long w = buckets.get(i);
+        if (find(w, 0) >= 0)
+            return true;
+        if (depth == 0)
+            return false;
+        for (int s = 0; s < SLOTS; s++) {
+            int victim = slot(w, s);
+            int j = alternate(i, victim);
+            if (j == i || !makeRoom(j, depth - 1))
+                continue;
+            long wj = buckets.get(j);
+            int free = find(wj, 0);
+            if (free < 0 || !buckets.compareAndSet(j, wj, with(wj, free, victim)))
+                return true;/*raced with another insert, retry from the top*/
+            if (!buckets.compareAndSet(i, w, with(w, s, 0)))
+                removeTag(j, victim);/*bucket i changed under us, take the copy back.*/
+            return true;
+        }
+        return false;
+    }
+
+    private boolean removeTag(int i, int tag) {
+        while (true) {
+            long w = buckets.get(i);
+            int slot = find(w, tag);
+            if (slot < 0)
+                return false;
+            if (buckets.compareAndSet(i, w, with(w, slot, 0)))
+                return true;
+        }
+    }
+
+    private int index(long fingerprint) {
+        return (int) fingerprint & mask;
+    }
+
+    /**
+     * the other bucket of a tag, an involution: alternate(alternate(i, tag), tag) == i.
+     */
+    private int alternate(int i, int tag) {
+        return (i ^ (int) UrlFingerprint.mix(tag)) & mask;
+    }
+
+    /*tag 0 marks an empty slot.*/
+    private static int tag(long fingerprint) {
+        int tag = (int) (fingerprint >>> (64 - TAG_BITS));
+        return tag == 0 ? 1 : tag;
+    }
+
+    private static int slot(long word, int s) {
+        return (int) ((word >>> (s * TAG_BITS)) & TAG_MASK);
+    }
+
+    private static int find(long word, int tag) {
+        for (int s = 0; s < SLOTS; s++) {
+            if (slot(word, s) == tag)
+                return s;
+        }
+        return -1;
+    }
+
+    private static long with(long word, int s, int tag) {
+        int shift = s * TAG_BITS;
+        return (word & ~(TAG_MASK << shift)) | ((long) tag << shift);
+    }
+}
@@ -0,0 +1,106 @@
+package joshua.java.concurrency.chap7;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An exact, lock-free FingerprintSet: an open-addressing hash table of longs with linear probing, 8 bytes per slot.
+ * <p/>
+ * The table is one primitive array, so the garbage collector never scans its entries and no object is created per
+ * fingerprint, which is what makes a ConcurrentHashMap of URLs cost hundreds of bytes per entry.
+ * <p/>
+ * Slots go from EMPTY to a fingerprint by compareAndSet and never back, a removed fingerprint leaves a TOMBSTONE.
+ * Because an insert only claims EMPTY slots, two threads adding the same fingerprint always race for the same slot,
+ * so add() is as atomic as putIfAbsent(). Tombstones are not reused, the table is sized once and add() fails with
+ * IllegalStateException when no EMPTY slot is left within the capacity it was created for.
+ */
+@ThreadSafe
+public class ConcurrentLongHashSet implements FingerprintSet {
+
+    private static final long EMPTY = 0;
+
+    private static final long TOMBSTONE = 1;
+
+    private static final double LOAD_FACTOR = 0.75;
+
+    private final AtomicLongArray table;
+
+    private final int mask;
+
+    private final int maxUsedSlots;
+
+    /*slots no longer EMPTY, fingerprints and tombstones.*/
+    private final AtomicInteger usedSlots = new AtomicInteger();
+
+    /**
+     * @param capacity number of fingerprints(plus removals) the set can take.
+     */
+    public ConcurrentLongHashSet(int capacity) {
+        long wanted = Math.max(2, (long) Math.ceil(capacity / LOAD_FACTOR));
+        if (wanted > 1 << 30)
+            throw new IllegalArgumentException("Capacity too large: " + capacity);
+        int n = Integer.highestOneBit((int) wanted);
+        if (n < wanted)
+            n <<= 1;
+        table = new AtomicLongArray(n);
+        mask = n - 1;
+        maxUsedSlots = capacity;
+    }
+
+    @Override
+    public boolean add(long fingerprint) {
+        long key = key(fingerprint);
+        for (int i = index(key), probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+            long k = table.get(i);
+            if (k == key)
+                return false;
+            if (k != EMPTY)
+                continue;
+            if (usedSlots.incrementAndGet() > maxUsedSlots) {
+                usedSlots.decrementAndGet();
+                throw new IllegalStateException("Set is full, capacity " + maxUsedSlots);
+            }
+            if (table.compareAndSet(i, EMPTY, key))
+                return true;
+            usedSlots.decrementAndGet();
+            /*lost the slot, the winner may have added the same key.*/
+            if (table.get(i) == key)
+                return false;
+        }
+        throw new IllegalStateException("Set is full, capacity " + maxUsedSlots);
+    }
+
+    @Override
+    public boolean remove(long fingerprint) {
+        long key = key(fingerprint);
+        int i = find(key);
+        return i >= 0 && table.compareAndSet(i, key, TOMBSTONE);
+    }
+
+    @Override
+    public boolean contains(long fingerprint) {
+        return find(key(fingerprint)) >= 0;
+    }
+
+    private int find(long key) {
+        for (int i = index(key), probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+            long k = table.get(i);
+            if (k == key)
+                return i;
+            if (k == EMPTY)
+                return -1;
+        }
+        return -1;
+    }
+
+    private int index(long key) {
+        return (int) UrlFingerprint.mix(key) & mask;
+    }
+
+    /*EMPTY and TOMBSTONE are reserved, shift the two fingerprints colliding with them.*/
+    private static long key(long fingerprint) {
+        return fingerprint == EMPTY || fingerprint == TOMBSTONE ? fingerprint + 2 : fingerprint;
+    }
+}
@@ -0,0 +1,426 @@
+package joshua.java.concurrency.chap7;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded crawl frontier: the URLs waiting to be fetched, queued per host, handed out in priority order while being
+ * polite to every host.
+ * <p/>
+ * Politeness: a host is fetched by one thread at a time, and after each fetch it rests for
+ * max(minDelay, delayFactor * fetch time), so a slow host is visited less often. Host states are kept until drain().
+ * <p/>
+ * Priority: within a host, URLs are taken highest score first; across hosts, take() picks the ready host whose best URL
+ * has the highest score.
+ * <p/>
+ * Bound: offer() blocks while "capacity" URLs are queued, which is what pushes back on the CrawlTasks discovering links.
+ * With an overflow queue, the URLs beyond capacity are spilled to disk instead, and read back in FIFO order whenever
+ * the in-memory frontier is down to half its capacity.
+ * <p/>
+ * The queues are guarded by one lock with two conditions, like a bounded buffer: notFull for producers, and
+ * hostReady for consumers, who wait either for a put or for the next host to finish resting.
+ */
+@ThreadSafe
+public class CrawlFrontier {
+
+    private final int capacity;
+
+    private final long minDelayNanos;
+
+    private final double delayFactor;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notFull = lock.newCondition();
+
+    private final Condition hostReady = lock.newCondition();
+
+    @GuardedBy("lock")
+    private final Map<String, HostQueue> hosts = new HashMap<String, HostQueue>();
+
+    /*hosts with URLs which may be fetched now, best URL first.*/
+    @GuardedBy("lock")
+    private final PriorityQueue<HostQueue> ready = new PriorityQueue<HostQueue>(16, new Comparator<HostQueue>() {
+        @Override
+        public int compare(HostQueue a, HostQueue b) {
+            return Double.compare(b.peekPriority(), a.peekPriority());
+        }
+    });
+
+    /*hosts with URLs which are resting after a fetch, earliest ready first.*/
+    @GuardedBy("lock")
+    private final PriorityQueue<HostQueue> resting = new PriorityQueue<HostQueue>(16, new Comparator<HostQueue>() {
+        @Override
+        public int compare(HostQueue a, HostQueue b) {
+            return Long.signum(a.nextFetchNanos - b.nextFetchNanos);
+        }
+    });
+
+    /*in-memory URLs.*/
+    @GuardedBy("lock")
+    private int count;
+
+    /*null if offer() blocks when full.*/
+    @GuardedBy("lock")
+    private final MappedSegmentQueue overflow;
+
+    @GuardedBy("lock")
+    private OverflowListener overflowListener;
+
+    /**
+     * @param capacity    maximum number of URLs queued
+     * @param minDelay    minimum rest of a host between two fetches
+     * @param unit
+     * @param delayFactor rest of a host, as a multiple of its last fetch time
+     */
+    public CrawlFrontier(int capacity, long minDelay, TimeUnit unit, double delayFactor) {
+        this(capacity, minDelay, unit, delayFactor, null);
+    }
+
+    /**
+     * @param overflow where URLs beyond capacity are spilled, URLs already in it are crawled too.
+     */
+    public CrawlFrontier(int capacity, long minDelay, TimeUnit unit, double delayFactor, MappedSegmentQueue overflow) {
+        if (capacity < 1 || minDelay < 0 || delayFactor < 0)
+            throw new IllegalArgumentException();
+        this.capacity = capacity;
+        this.minDelayNanos = unit.toNanos(minDelay);
+        this.delayFactor = delayFactor;
+        this.overflow = overflow;
+    }
+
+    /**
+     * Where offer() or add() put a URL.
+     */
+    public enum Admission {
+        /*in memory.*/
+        QUEUED,
+        /*in the overflow queue.*/
+        SPILLED,
+        /*nowhere, the frontier stayed full.*/
+        REJECTED
+    }
+
+    /**
+     * queue a URL, spilling it if the frontier is full and has an overflow queue, otherwise waiting up to the
+     * timeout for room.
+     *
+     * @return false if the frontier stayed full.
+     */
+    public boolean offer(URL url, double priority, long timeout, TimeUnit unit) throws InterruptedException {
+        return admit(url, priority, timeout, unit) != Admission.REJECTED;
+    }
+
+    /**
+     * same as offer(), telling whether the URL was queued in memory or spilled, e.g. to stop tracking the URLs the
+     * overflow queue keeps on disk.
+     */
+    public Admission admit(URL url, double priority, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count >= capacity) {
+                if (overflow != null) {
+                    try {
+                        overflow.add(url, priority);
+                        if (overflowListener != null)
+                            overflowListener.spilled(url);
+                    } catch (ClosedByInterruptException e) {
+                        /*mapping a new segment was interrupted, nothing was written.*/
+                        Thread.interrupted();
+                        throw new InterruptedException();
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Can't spill " + url, e);
+                    }
+                    return Admission.SPILLED;
+                }
+                if (nanos <= 0)
+                    return Admission.REJECTED;
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(url, priority);
+            return Admission.QUEUED;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * queue a URL even beyond capacity(unless it can be spilled), for restoring URLs saved by a previous stop().
+     *
+     * @return QUEUED or SPILLED
+     */
+    public Admission add(URL url, double priority) {
+        lock.lock();
+        try {
+            if (count >= capacity && overflow != null) {
+                spill(url, priority);
+                return Admission.SPILLED;
+            }
+            enqueue(url, priority);
+            return Admission.QUEUED;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Told about the URLs going through the overflow queue, e.g. to stop journaling a spilled URL once the queue is
+     * forced, and journal it again once it is brought back to memory. Called under the frontier's lock, in the
+     * order these happen, so it must not block nor call the frontier.
+     */
+    public interface OverflowListener {
+        void spilled(URL url);
+
+        /*every URL spilled so far is on the storage device.*/
+        void forced();
+
+        void reloaded(URL url);
+    }
+
+    public void setOverflowListener(OverflowListener listener) {
+        lock.lock();
+        try {
+            overflowListener = listener;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * take the best URL of a host which may be fetched now, waiting for one if needed.
+     * The caller must report the end of the fetch with done(), until then the host is not handed out again.
+     */
+    public URL take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                refill();
+                long now = System.nanoTime();
+                HostQueue h;
+                while ((h = resting.peek()) != null && h.nextFetchNanos - now <= 0) {
+                    resting.poll();
+                    ready.add(h);
+                }
+                h = ready.poll();
+                if (h != null) {
+                    URL url = h.poll();
+                    h.busy = true;
+                    count--;
+                    notFull.signal();
+                    return url;
+                }
+                h = resting.peek();
+                if (h == null)
+                    hostReady.await();
+                else
+                    hostReady.awaitNanos(h.nextFetchNanos - now);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * report that the fetch of a URL returned by take() is over, so its host may rest and be fetched again.
+     *
+     * @param fetchNanos how long the fetch took
+     */
+    public void done(URL url, long fetchNanos) {
+        lock.lock();
+        try {
+            HostQueue h = hosts.get(hostOf(url));
+            if (h == null || !h.busy)
+                return;/*drained meanwhile*/
+            h.busy = false;
+            h.nextFetchNanos = System.nanoTime() + Math.max(minDelayNanos, (long) (fetchNanos * delayFactor));
+            /*an empty host stays in the map, so it still rests if new links to it turn up.*/
+            if (!h.isEmpty()) {
+                resting.add(h);
+                hostReady.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * remove every URL queued in memory and forget host states, e.g. when the crawler stops.
+     * Spilled URLs stay in the overflow queue.
+     */
+    public List<URL> drain() {
+        lock.lock();
+        try {
+            List<URL> urls = new ArrayList<URL>(count);
+            for (HostQueue h : hosts.values()) {
+                while (!h.isEmpty())
+                    urls.add(h.poll());
+            }
+            hosts.clear();
+            ready.clear();
+            resting.clear();
+            count = 0;
+            notFull.signalAll();
+            return urls;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * write the spilled URLs to the storage device, so they survive the process.
+     */
+    public void force() {
+        lock.lock();
+        try {
+            if (overflow != null)
+                overflow.force();
+            if (overflowListener != null)
+                overflowListener.forced();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * persist how far the spilled URLs were read back, which deletes them from the overflow queue.
+     *
+     * @param reloadLog where the OverflowListener records the URLs read back, flushed first so none of them is lost;
+     *                  null if they aren't kept anywhere else.
+     */
+    public void commitReloads(Flushable reloadLog) throws IOException {
+        lock.lock();
+        try {
+            /*under the lock: no URL is read back between the flush and the commit.*/
+            if (reloadLog != null)
+                reloadLog.flush();
+            if (overflow != null)
+                overflow.commitReads();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of URLs queued in memory.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @GuardedBy("lock")
+    private void enqueue(URL url, double priority) {
+        String host = hostOf(url);
+        HostQueue h = hosts.get(host);
+        if (h == null) {
+            h = new HostQueue();
+            hosts.put(host, h);
+        }
+        boolean wasEmpty = h.isEmpty();
+        boolean improvesReady = !wasEmpty && !h.busy && priority > h.peekPriority() && ready.remove(h);
+        h.add(url, priority);
+        count++;
+        if (improvesReady) {
+            ready.add(h);/*re-insert with its new best priority*/
+        } else if (wasEmpty && !h.busy) {
+            if (h.nextFetchNanos - System.nanoTime() <= 0)
+                ready.add(h);
+            else
+                resting.add(h);
+            hostReady.signal();
+        }
+    }
+
+    @GuardedBy("lock")
+    private void spill(URL url, double priority) {
+        try {
+            overflow.add(url, priority);
+            if (overflowListener != null)
+                overflowListener.spilled(url);
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't spill " + url, e);
+        }
+    }
+
+    /**
+     * bring spilled URLs back once the in-memory frontier is down to half its capacity, in one go rather than one
+     * at a time, so a frontier at the boundary doesn't alternate between spilling and reading back.
+     */
+    @GuardedBy("lock")
+    private void refill() {
+        if (overflow == null || count > capacity / 2)
+            return;
+        try {
+            while (count < capacity && !overflow.isEmpty()) {
+                double priority = overflow.peekPriority();
+                URL url = overflow.poll();
+                enqueue(url, priority);
+                if (overflowListener != null)
+                    overflowListener.reloaded(url);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't read spilled URLs", e);
+        }
+    }
+
+    private static String hostOf(URL url) {
+        return url.getHost().toLowerCase(Locale.ROOT) + ':' + url.getPort();
+    }
+
+    /**
+     * URLs of one host, best first, and the host's politeness state.
+     */
+    private static final class HostQueue {
+        private final PriorityQueue<Entry> urls = new PriorityQueue<Entry>();
+
+        /*a URL of this host is being fetched.*/
+        private boolean busy;
+
+        private long nextFetchNanos = System.nanoTime();
+
+        void add(URL url, double priority) {
+            urls.add(new Entry(url, priority));
+        }
+
+        URL poll() {
+            return urls.poll().url;
+        }
+
+        double peekPriority() {
+            return urls.peek().priority;
+        }
+
+        boolean isEmpty() {
+            return urls.isEmpty();
+        }
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        private final URL url;
+        private final double priority;
+
+        Entry(URL url, double priority) {
+            this.url = url;
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            return Double.compare(o.priority, priority);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package joshua.java.concurrency.chap7;
+
+/**
+ * A concurrent set of 64-bit fingerprints(see UrlFingerprint), used by WebCrawler to remember the URLs it has seen in a
+ * few bytes each, instead of a ConcurrentHashMap entry and a URL object per URL.
+ * <p/>
+ * None of the operations allocate.
+ */
+public interface FingerprintSet {
+
+    /**
+     * atomically add the fingerprint if it is absent, like ConcurrentMap.putIfAbsent().
+     *
+     * @return true if added, false if it was already present(or, for a probabilistic set, looked present).
+     * @throws IllegalStateException if the set is full, it never drops a fingerprint silently.
+     */
+    boolean add(long fingerprint);
+
+    /**
+     * @return true if removed, false if it was absent.
+     */
+    boolean remove(long fingerprint);
+
+    boolean contains(long fingerprint);
+}
@@ -0,0 +1,275 @@
+package joshua.java.concurrency.chap7;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.zip.CRC32;
+
+/**
+ * A FIFO queue of URLs with priorities, stored in memory-mapped, append-only segment files. CrawlFrontier spills the
+ * URLs it has no room for into it, so a deep crawl is bounded by disk rather than heap.
+ * <p/>
+ * Segment layout: [int write position][int read position][int segment size][records...], a record is
+ * [int length][int crc32 of priority and URL][double priority][UTF-8 URL]. URLs are appended to the last segment, a
+ * new one is started when it is full, and they are read back sequentially from the first segment. A record whose
+ * length or checksum doesn't match, torn by a crash, ends its segment.
+ * <p/>
+ * Both positions live in the segment's own header, so the queue survives a restart as is: a full segment is written
+ * out when the next one is started, force() writes out the mapped ones, and a new MappedSegmentQueue on the same
+ * directory carries on from the persisted positions, without reading the URLs onto the heap. Each segment keeps the
+ * size it was created with.
+ * <p/>
+ * The read position only moves in memory until commitReads(), which also deletes the segments read to the end: the
+ * caller first makes the URLs read back durable elsewhere, so a crash in between reads them back again rather than
+ * losing them.
+ * <p/>
+ * Only the first and last segments are mapped. A mapping can't be released explicitly before Java 9, so a deleted
+ * segment's memory is returned when its buffer is garbage collected.
+ * <p/>
+ * Not thread-safe, CrawlFrontier calls it under its lock.
+ */
+@NotThreadSafe
+public class MappedSegmentQueue {
+
+    private static final String PREFIX = "frontier-";
+
+    private static final String SUFFIX = ".seg";
+
+    private static final int HEADER = 12;
+
+    private static final int RECORD_HEADER = 4 + 4 + 8;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File dir;
+
+    /*size of the segments created from now on.*/
+    private final int segmentSize;
+
+    /*sequence numbers of the segments on disk not read to the end yet, oldest first.*/
+    private final Deque<Long> segments = new ArrayDeque<Long>();
+
+    /*read to the end, deleted by the next commitReads().*/
+    private final Deque<Long> consumed = new ArrayDeque<Long>();
+
+    private final CRC32 crc = new CRC32();
+
+    private MappedByteBuffer head;
+    private long headSeq;
+    /*read position of the head, persisted by commitReads().*/
+    private int headRead;
+    /*headRead's record has been checked.*/
+    private boolean headChecked;
+
+    private MappedByteBuffer tail;
+    private long tailSeq;
+
+    /**
+     * open the queue stored in dir, or an empty one if there is none.
+     *
+     * @param segmentSize size of each new segment file, in bytes; existing ones keep theirs
+     */
+    public MappedSegmentQueue(File dir, int segmentSize) throws IOException {
+        if (segmentSize < HEADER + RECORD_HEADER + 1)
+            throw new IllegalArgumentException("segmentSize: " + segmentSize);
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Can't create " + dir);
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        String[] names = dir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }
+        });
+        long[] seqs = new long[names.length];
+        for (int i = 0; i < names.length; i++)
+            seqs[i] = Long.parseLong(names[i].substring(PREFIX.length(), names[i].length() - SUFFIX.length()));
+        Arrays.sort(seqs);
+        for (long seq : seqs)
+            segments.addLast(seq);
+    }
+
+    public void add(URL url, double priority) throws IOException {
+        byte[] bytes = url.toString().getBytes(UTF8);
+        int length = RECORD_HEADER + bytes.length;
+        if (HEADER + length > segmentSize)
+            throw new IllegalArgumentException("URL longer than a segment: " + url);
+        if (tail == null) {
+            if (segments.isEmpty())
+                segments.addLast(consumed.isEmpty() ? 0L : consumed.peekLast() + 1);
+            long seq = segments.peekLast();
+            tail = map(seq);
+            tailSeq = seq;
+        }
+        int writePos = tail.getInt(0);
+        if (writePos + length > tail.capacity()) {
+            /*sealed, and unmapped unless it is the head: force() won't see it again.*/
+            if (tail != head)
+                tail.force();
+            long seq = tailSeq + 1;
+            /*mapped first: if that fails, the queue is unchanged.*/
+            MappedByteBuffer next = map(seq);
+            segments.addLast(seq);
+            tail = next;
+            tailSeq = seq;
+            writePos = tail.getInt(0);
+        }
+        tail.putInt(writePos, bytes.length);
+        tail.putDouble(writePos + 8, priority);
+        ByteBuffer record = tail.duplicate();
+        record.position(writePos + RECORD_HEADER);
+        record.put(bytes);
+        tail.putInt(writePos + 4, checksum(tail, writePos, bytes.length));
+        /*publish the record only once it is complete.*/
+        tail.putInt(0, writePos + length);
+    }
+
+    /**
+     * moves on past the segments read to the end.
+     *
+     * @return false if a URL is available, in which case peekPriority() and poll() may be called.
+     */
+    public boolean isEmpty() throws IOException {
+        while (true) {
+            if (segments.isEmpty())
+                return true;
+            if (head == null) {
+                long seq = segments.peekFirst();
+                head = map(seq);
+                headSeq = seq;
+                headRead = head.getInt(4);
+                headChecked = false;
+            }
+            int writePos = head.getInt(0);
+            if (headRead < writePos) {
+                if (headChecked || isIntact(head, headRead, writePos)) {
+                    headChecked = true;
+                    return false;
+                }
+                /*torn by a crash, nothing after it made it to disk: appends, if any, go on from here.*/
+                head.putInt(0, headRead);
+            }
+            if (segments.size() == 1)
+                return true;/*the last segment, still being appended*/
+            /*read to the end and sealed: deleted once the reads are committed.*/
+            consumed.addLast(segments.pollFirst());
+            head = null;
+        }
+    }
+
+    public double peekPriority() throws IOException {
+        checkNotEmpty();
+        return head.getDouble(headRead + 8);
+    }
+
+    public URL poll() throws IOException {
+        checkNotEmpty();
+        int n = head.getInt(headRead);
+        byte[] bytes = new byte[n];
+        ByteBuffer record = head.duplicate();
+        record.position(headRead + RECORD_HEADER);
+        record.get(bytes);
+        headRead += RECORD_HEADER + n;
+        headChecked = false;
+        return new URL(new String(bytes, UTF8));
+    }
+
+    /**
+     * write the mapped segments to the storage device, so the URLs added survive the process. The read position
+     * is left as last committed.
+     */
+    public void force() {
+        if (head != null)
+            head.force();
+        if (tail != null && tail != head)
+            tail.force();
+    }
+
+    /**
+     * persist the read position, and delete the segments read to the end. Call it only once the URLs polled so far
+     * are safe elsewhere, they are never read back afterwards.
+     */
+    public void commitReads() throws IOException {
+        if (head != null) {
+            head.putInt(4, headRead);
+            head.force();
+        }
+        while (!consumed.isEmpty()) {
+            File f = segmentFile(consumed.peekFirst());
+            if (!f.delete() && f.exists())
+                throw new IOException("Can't delete " + f);
+            consumed.pollFirst();
+        }
+    }
+
+    private void checkNotEmpty() throws IOException {
+        if (isEmpty())
+            throw new IllegalStateException("Queue is empty");
+    }
+
+    private boolean isIntact(ByteBuffer buf, int pos, int writePos) {
+        int n = buf.getInt(pos);
+        if (n < 0 || n > writePos - pos - RECORD_HEADER)
+            return false;
+        return buf.getInt(pos + 4) == checksum(buf, pos, n);
+    }
+
+    /**
+     * crc32 of the priority and URL of the record at pos.
+     */
+    private int checksum(ByteBuffer buf, int pos, int urlLength) {
+        ByteBuffer covered = buf.duplicate();
+        covered.limit(pos + RECORD_HEADER + urlLength);
+        covered.position(pos + 8);
+        crc.reset();
+        crc.update(covered);
+        return (int) crc.getValue();
+    }
+
+    private MappedByteBuffer map(long seq) throws IOException {
+        /*the head and tail are the same buffer while there is a single segment.*/
+        if (head != null && headSeq == seq)
+            return head;
+        if (tail != null && tailSeq == seq)
+            return tail;
+        RandomAccessFile raf = new RandomAccessFile(segmentFile(seq), "rw");
+        try {
+            /*an existing segment keeps the size it was created with.*/
+            int size = segmentSize;
+            if (raf.length() >= HEADER) {
+                raf.seek(8);
+                int recorded = raf.readInt();
+                if (recorded >= HEADER)
+                    size = recorded;
+                else if (raf.length() > HEADER)
+                    size = (int) Math.min(Integer.MAX_VALUE, raf.length());
+            }
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (buf.getInt(0) < HEADER) {
+                /*new file, zero filled by the mapping.*/
+                buf.putInt(0, HEADER);
+                buf.putInt(4, HEADER);
+                buf.putInt(8, size);
+            }
+            return buf;
+        } finally {
+            raf.close();/*the mapping stays valid after the channel is closed.*/
+        }
+    }
+
+    private File segmentFile(long seq) {
+        return new File(dir, String.format("%s%016d%s", PREFIX, seq, SUFFIX));
+    }
+}
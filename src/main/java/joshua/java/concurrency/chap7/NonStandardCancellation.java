@@ -1,10 +1,17 @@
 package joshua.java.concurrency.chap7;
 
+import joshua.java.concurrency.jfr.TaskExecutionEvent;
 import net.jcip.annotations.GuardedBy;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.net.Socket;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
 
 /**
@@ -131,23 +138,66 @@ public class NonStandardCancellation {
     /**
      * A customized ThreadPoolExecutor which is capable of returning cancellable task for an extended case:
      * when the callable could be blocked in calls which are non-responsible to interruption.
+     * <p/>
+     * While TaskExecutionEvent is enabled, execute() stamps each task with its submission time, kept aside by task
+     * rather than by wrapping it, so the queue holds the caller's tasks: remove(), purge() and getQueue() work as
+     * usual. A stamp is dropped when its task runs, is removed, purged, rejected or returned by shutdownNow(). A task
+     * taken out through getQueue() directly leaves its stamp behind.
+     * <p/>
+     * Sizing instrumentation(busy and cpu time) is off until a PoolSizeController attaches, so a task only pays for it
+     * when someone reads it. Each worker then keeps its own slot, written by that worker alone, and cpu time is
+     * sampled per worker thread when the controller asks for it rather than measured around every task.
      */
     class CancellingExecutor extends ThreadPoolExecutor {
 
+        /*set by PoolSizeController, until then beforeExecute() and afterExecute() do no sizing bookkeeping.*/
+        private volatile boolean sizing;
+
+        /*set once execute() has stamped a task, from then on the workers look for stamps in their slots.*/
+        private volatile boolean stamping;
+
+        private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        private final boolean cpuTimeSupported = threadBean.isThreadCpuTimeSupported();
+
+        /*slots of the workers which ran a task since sizing or stamping was turned on, pruned once they exit.*/
+        private final Set<Slot> slots = Collections.newSetFromMap(new ConcurrentHashMap<Slot, Boolean>());
+
+        private final ThreadLocal<Slot> slot = new ThreadLocal<Slot>() {
+            @Override
+            protected Slot initialValue() {
+                Slot s = new Slot();
+                slots.add(s);
+                return s;
+            }
+        };
+
+        /*busy and cpu time of the workers which exited.*/
+        @GuardedBy("this")
+        private long retiredBusyNanos;
+        @GuardedBy("this")
+        private long retiredCpuNanos;
+
+        /*submission time of the queued tasks, only while TaskExecutionEvent is enabled.*/
+        private final ConcurrentMap<Runnable, Stamp> stamps = new ConcurrentHashMap<Runnable, Stamp>();
+
         public CancellingExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue) {
             super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue);
+            setRejectedExecutionHandler(super.getRejectedExecutionHandler());
         }
 
         public CancellingExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory) {
             super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory);
+            setRejectedExecutionHandler(super.getRejectedExecutionHandler());
         }
 
         public CancellingExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, RejectedExecutionHandler handler) {
             super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, handler);
+            setRejectedExecutionHandler(super.getRejectedExecutionHandler());
         }
 
         public CancellingExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory, RejectedExecutionHandler handler) {
             super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
+            setRejectedExecutionHandler(super.getRejectedExecutionHandler());
         }
 
         /**
@@ -166,5 +216,204 @@ public class NonStandardCancellation {
             else
                 return super.newTaskFor(callable);
         }
+
+        @Override
+        public void execute(Runnable command) {
+            /*a probe which doesn't escape, so the JIT removes its allocation.*/
+            if (command != null && new TaskExecutionEvent().isEnabled()) {
+                TaskExecutionEvent event = new TaskExecutionEvent();
+                event.begin();
+                /*before queueing, a worker may take the task right away.*/
+                stamps.put(command, new Stamp(event));
+                if (!stamping)
+                    stamping = true;
+            }
+            super.execute(command);
+        }
+
+        @Override
+        public boolean remove(Runnable task) {
+            stamps.remove(task);
+            return super.remove(task);
+        }
+
+        @Override
+        public void purge() {
+            super.purge();
+            for (Runnable r : stamps.keySet()) {
+                if (r instanceof Future && ((Future<?>) r).isCancelled())
+                    stamps.remove(r);
+            }
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            List<Runnable> unstarted = super.shutdownNow();
+            for (Runnable r : unstarted)
+                stamps.remove(r);
+            return unstarted;
+        }
+
+        @Override
+        public void setRejectedExecutionHandler(RejectedExecutionHandler handler) {
+            super.setRejectedExecutionHandler(new Unstamping(handler));
+        }
+
+        @Override
+        public RejectedExecutionHandler getRejectedExecutionHandler() {
+            return ((Unstamping) super.getRejectedExecutionHandler()).handler;
+        }
+
+        /**
+         * turn on the busy and cpu time bookkeeping read by getBusyNanos() and getCpuNanos(). Tasks already running
+         * count from their next run on.
+         */
+        void enableSizing() {
+            sizing = true;
+        }
+
+        @Override
+        protected void beforeExecute(Thread t, Runnable r) {
+            super.beforeExecute(t, r);
+            Stamp stamp = stamps.isEmpty() ? null : stamps.remove(r);
+            if (stamp == null && !sizing)
+                return;
+            Slot s = slot.get();
+            s.stamp = stamp;
+            s.since = System.nanoTime();
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            try {
+                if (!sizing && !stamping)
+                    return;
+                Slot s = slot.get();
+                long since = s.since;
+                if (since == 0)
+                    return;/*started before sizing was turned on*/
+                long end = System.nanoTime();
+                s.busy += end - since;/*written by this worker only*/
+                s.since = 0;
+                Stamp stamp = s.stamp;
+                if (stamp != null) {
+                    s.stamp = null;
+                    stamp.commit(getClass().getName(), r, since, end);
+                }
+            } finally {
+                super.afterExecute(r, t);
+            }
+        }
+
+        /**
+         * @return total wall clock time spent by workers running tasks since sizing was enabled, including time blocked
+         * on I/O and the time spent so far by the tasks still running. A task finishing during the call may be
+         * counted twice in that one sample.
+         */
+        synchronized long getBusyNanos() {
+            long busy = retiredBusyNanos;
+            long now = System.nanoTime();
+            for (Iterator<Slot> it = slots.iterator(); it.hasNext(); ) {
+                Slot s = it.next();
+                long since, done;
+                do {
+                    since = s.since;
+                    done = s.busy;
+                } while (since != s.since);
+                busy += done + (since == 0 ? 0 : Math.max(0, now - since));
+                if (!s.thread.isAlive()) {
+                    retiredBusyNanos += s.busy;
+                    retiredCpuNanos += s.cpu;
+                    it.remove();
+                }
+            }
+            return busy;
+        }
+
+        /**
+         * @return total cpu time of the workers since sizing was enabled, tasks still running included, sampled from
+         * each worker thread now; or 0 if the JVM can't measure thread cpu time.
+         */
+        synchronized long getCpuNanos() {
+            if (!cpuTimeSupported)
+                return 0;
+            long cpu = retiredCpuNanos;
+            for (Slot s : slots) {
+                long t = threadBean.getThreadCpuTime(s.thread.getId());
+                if (t >= 0 && s.cpuBase >= 0)/*-1 once the thread has exited, its last sample stands*/
+                    s.cpu = t - s.cpuBase;
+                cpu += s.cpu;
+            }
+            return cpu;
+        }
+
+        /**
+         * a worker's bookkeeping, written by that worker and read by the sampling thread.
+         */
+        private final class Slot {
+            private final Thread thread;
+
+            /*start of the running task, 0 when idle.*/
+            private volatile long since;
+
+            /*wall clock time of the completed tasks.*/
+            private volatile long busy;
+
+            /*cpu time of the thread when the slot was made, so time before sizing isn't counted.*/
+            private final long cpuBase;
+
+            /*last sampled cpu time of the thread since cpuBase, guarded by the executor.*/
+            private long cpu;
+
+            /*stamp of the running task, null if it had none.*/
+            private Stamp stamp;
+
+            /*made by the worker itself.*/
+            Slot() {
+                this.thread = Thread.currentThread();
+                this.cpuBase = cpuTimeSupported ? threadBean.getCurrentThreadCpuTime() : -1;
+            }
+        }
+
+        /**
+         * the event begun when a task was submitted, until the task has run.
+         */
+        private final class Stamp {
+            private final TaskExecutionEvent event;
+
+            private final long queuedNanos = System.nanoTime();
+
+            Stamp(TaskExecutionEvent event) {
+                this.event = event;
+            }
+
+            void commit(String executor, Runnable task, long startNanos, long endNanos) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.setExecutor(executor);
+                    event.setTaskClass(task.getClass());
+                    event.setQueueWait(startNanos - queuedNanos);
+                    event.setRunTime(endNanos - startNanos);
+                    event.commit();
+                }
+            }
+        }
+
+        /**
+         * a task rejected by execute() never runs, drop its stamp before handing it to the caller's handler.
+         */
+        private final class Unstamping implements RejectedExecutionHandler {
+            private final RejectedExecutionHandler handler;
+
+            Unstamping(RejectedExecutionHandler handler) {
+                this.handler = handler;
+            }
+
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                stamps.remove(r);
+                handler.rejectedExecution(r, executor);
+            }
+        }
     }
 }
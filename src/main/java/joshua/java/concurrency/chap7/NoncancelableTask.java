@@ -1,6 +1,10 @@
 package joshua.java.concurrency.chap7;
 
+import joshua.java.concurrency.jfr.CancellationEvent;
+
+import java.util.Collection;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -22,14 +26,14 @@ public class NoncancelableTask {
         * retain the interrupted state if happened on queue.take() method.
         *
         */
-        boolean interrupted=false;
+        int interrupts=0;
         try{
             while(true){
                 try{
                     /*responsible to Interrupted event on current thread.*/
                     return queue.take();
                 }catch (InterruptedException e){
-                    interrupted=true;
+                    interrupts++;
                     //fall through and retry.
                 }
             }
@@ -38,8 +42,74 @@ public class NoncancelableTask {
               to make getNextTask() method responsible to interrupt event without breaking the logic inside method.
               but notify the running thread or saying methods above the calling stack be aware of this interrupted event;
              */
-            if(interrupted)
-                Thread.currentThread().interrupt();
+            if(interrupts>0)
+                restoreInterrupt("NoncancelableTask.getNextTask",interrupts);
+        }
+    }
+
+    /**
+     * Batch version of getNextTask(): block for the first task, then drain up to maxTasks - 1 more which are already
+     * queued, paying for the queue's lock(and a possible park) once per batch instead of once per task.
+     * Same interruption contract: an interrupt doesn't abort the wait, it is restored before exit.
+     *
+     * @param queue
+     * @param tasks    collection the tasks are added to, can be reused across calls
+     * @param maxTasks
+     * @return number of tasks added, at least 1.
+     */
+    public int getNextTasks(BlockingQueue<Task> queue, Collection<? super Task> tasks, int maxTasks){
+        return getNextTasks(queue, tasks, maxTasks, false, 0);
+    }
+
+    /**
+     * Same as getNextTasks(queue, tasks, maxTasks), but gives up waiting for the first task at the deadline.
+     *
+     * @return number of tasks added, 0 if none arrived before the timeout.
+     */
+    public int getNextTasks(BlockingQueue<Task> queue, Collection<? super Task> tasks, int maxTasks,
+                            long timeout, TimeUnit unit){
+        return getNextTasks(queue, tasks, maxTasks, true, unit.toNanos(timeout));
+    }
+
+    private int getNextTasks(BlockingQueue<Task> queue, Collection<? super Task> tasks, int maxTasks,
+                             boolean timed, long nanos){
+        if(maxTasks<1)
+            throw new IllegalArgumentException("maxTasks: "+maxTasks);
+        long deadline=System.nanoTime()+nanos;
+        int interrupts=0;
+        try{
+            while(true){
+                try{
+                    /*the deadline holds across retries, an interrupt doesn't restart the wait.*/
+                    Task first=timed?queue.poll(deadline-System.nanoTime(),TimeUnit.NANOSECONDS):queue.take();
+                    if(first==null)
+                        return 0;
+                    tasks.add(first);
+                    /*non-blocking, takes only what is already queued.*/
+                    return 1+queue.drainTo(tasks,maxTasks-1);
+                }catch (InterruptedException e){
+                    interrupts++;
+                    //fall through and retry.
+                }
+            }
+        }finally {
+            /*restore the interrupted state before exit, as getNextTask() does.*/
+            if(interrupts>0)
+                restoreInterrupt("NoncancelableTask.getNextTasks",interrupts);
+        }
+    }
+
+    /**
+     * restore the interrupted state, recorded as a CancellationEvent.
+     */
+    private static void restoreInterrupt(String source, int interrupts){
+        Thread.currentThread().interrupt();
+        CancellationEvent event=new CancellationEvent();
+        if(event.shouldCommit()){
+            event.setSource(source);
+            event.setAction(CancellationEvent.INTERRUPT_RESTORED);
+            event.setInterrupts(interrupts);
+            event.commit();
         }
     }
 }
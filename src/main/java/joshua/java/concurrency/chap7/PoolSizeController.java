@@ -0,0 +1,192 @@
+package joshua.java.concurrency.chap7;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A feedback controller which resizes a CancellingExecutor at runtime instead of fixing core and maximum pool sizes by hand.
+ * <p/>
+ * On every tick it samples the executor and picks a pool size from two rules:
+ * 1) the sizing formula N_threads = N_cpu * U_cpu * (1 + W/C) caps the pool, where W/C (wait time to compute time) is
+ * measured from the tasks actually running(wall clock vs. cpu time), so tasks blocked on sockets earn more threads
+ * while cpu bound tasks never oversubscribe the cores;
+ * 2) under that cap, Little's law L = lambda * W gives the concurrency the current arrival rate needs, plus enough
+ * threads to drain the backlog when the queue wait(again Little's law: W_q = L_q / lambda) exceeds the target.
+ * <p/>
+ * Busy time includes the tasks still running, and the pool never shrinks below its active workers, so tasks blocked
+ * longer than a tick(e.g. on sockets) are not mistaken for an idle pool.
+ * <p/>
+ * Hysteresis: the pool grows as soon as a larger size is needed, but only shrinks by more than a deadband and after
+ * several consecutive ticks agree on it, so the size doesn't flap with a noisy workload.
+ * <p/>
+ * Only the scheduling thread touches the sampling state, so run() must not be called concurrently.
+ */
+@NotThreadSafe
+public class PoolSizeController implements Runnable {
+
+    private final NonStandardCancellation.CancellingExecutor exec;
+
+    private final int minPoolSize;
+
+    private final int maxPoolSize;
+
+    /*target cpu utilization, in (0, 1].*/
+    private final double targetUtilization;
+
+    private final long targetQueueWaitNanos;
+
+    /*number of consecutive ticks which must ask for a smaller pool before shrinking.*/
+    private final int shrinkTicks;
+
+    private final int nCpu = Runtime.getRuntime().availableProcessors();
+
+    private long lastTickNanos;
+    private long lastCompleted;
+    private long lastBusyNanos;
+    private long lastCpuNanos;
+    private int lastQueued;
+
+    /*cap from the last interval which measured W/C, used by intervals which can't.*/
+    private int lastCap;
+
+    private int shrinkVotes;
+    private int shrinkTarget;
+
+    public PoolSizeController(NonStandardCancellation.CancellingExecutor exec, int minPoolSize, int maxPoolSize,
+                              double targetUtilization, long targetQueueWait, TimeUnit unit, int shrinkTicks) {
+        if (minPoolSize < 1 || maxPoolSize < minPoolSize)
+            throw new IllegalArgumentException("Invalid pool bounds: [" + minPoolSize + ", " + maxPoolSize + "]");
+        if (targetUtilization <= 0 || targetUtilization > 1)
+            throw new IllegalArgumentException("Utilization out of (0, 1]: " + targetUtilization);
+        if (targetQueueWait <= 0 || shrinkTicks < 1)
+            throw new IllegalArgumentException();
+        this.exec = exec;
+        exec.enableSizing();
+        this.minPoolSize = minPoolSize;
+        this.maxPoolSize = maxPoolSize;
+        this.targetUtilization = targetUtilization;
+        this.targetQueueWaitNanos = unit.toNanos(targetQueueWait);
+        this.shrinkTicks = shrinkTicks;
+        this.lastCap = maxPoolSize;
+        this.lastTickNanos = System.nanoTime();
+        this.lastCompleted = exec.getCompletedTaskCount();
+        this.lastBusyNanos = exec.getBusyNanos();
+        this.lastCpuNanos = exec.getCpuNanos();
+        this.lastQueued = exec.getQueue().size();
+    }
+
+    /**
+     * schedule the controller on the given scheduler, cancel the returned future to stop resizing.
+     */
+    public ScheduledFuture<?> start(ScheduledExecutorService scheduler, long period, TimeUnit unit) {
+        return scheduler.scheduleWithFixedDelay(this, period, period, unit);
+    }
+
+    @Override
+    public void run() {
+        long now = System.nanoTime();
+        long completed = exec.getCompletedTaskCount();
+        long busy = exec.getBusyNanos();
+        long cpu = exec.getCpuNanos();
+        int queued = exec.getQueue().size();
+
+        int current = exec.getCorePoolSize();
+        int target = targetPoolSize(current, exec.getActiveCount(), now - lastTickNanos, completed - lastCompleted,
+                busy - lastBusyNanos, cpu - lastCpuNanos, lastQueued, queued);
+
+        lastTickNanos = now;
+        lastCompleted = completed;
+        lastBusyNanos = busy;
+        lastCpuNanos = cpu;
+        lastQueued = queued;
+
+        apply(current, target);
+    }
+
+    /**
+     * compute the pool size wanted for one sampling interval, clamped to the configured bounds.
+     *
+     * @param current        current pool size
+     * @param active         workers running a task at the end of the interval
+     * @param elapsedNanos   length of the interval
+     * @param completed      tasks completed in the interval
+     * @param busyNanos      wall clock time spent running tasks in the interval, completed or not
+     * @param cpuNanos       cpu time spent by the workers in the interval, running tasks included, 0 if unknown
+     * @param queuedBefore   queue length at the start of the interval
+     * @param queued         queue length at the end of the interval
+     * @return the pool size to move to, within [minPoolSize, maxPoolSize] and never below the busy workers
+     */
+    int targetPoolSize(int current, int active, long elapsedNanos, long completed, long busyNanos, long cpuNanos,
+                       int queuedBefore, int queued) {
+        /*no cpu sample in this interval: keep the cores' cap measured last, rather than lift it.*/
+        int cap = lastCap;
+        if (cpuNanos > 0 && busyNanos > 0) {
+            double waitToCompute = Math.max(0, (double) (busyNanos - cpuNanos) / cpuNanos);
+            cap = (int) Math.min(maxPoolSize, Math.ceil(nCpu * targetUtilization * (1 + waitToCompute)));
+            cap = Math.max(cap, minPoolSize);
+            lastCap = cap;
+        }
+
+        /*never below the workers in use, nor below the current size while all of them are.*/
+        int floor = active >= current ? current : active;
+
+        if (completed <= 0 || elapsedNanos <= 0) {
+            /*
+               nothing finished: either idle, or every worker is stuck in a long task. Queued tasks won't start
+               before one finishes, so each needs a thread of its own.
+             */
+            if (queued > 0)
+                return Math.max(floor, clamp(active + queued, cap));
+            return Math.max(floor, minPoolSize);
+        }
+
+        double throughput = (double) completed / elapsedNanos;
+        double arrivalRate = Math.max(0, throughput + (double) (queued - queuedBefore) / elapsedNanos);
+        double serviceNanos = (double) busyNanos / completed;
+
+        double needed = arrivalRate * serviceNanos;
+        double queueWaitNanos = queued / throughput;
+        if (queueWaitNanos > targetQueueWaitNanos)
+            needed += queued * serviceNanos / targetQueueWaitNanos;
+
+        return Math.max(floor, clamp((int) Math.ceil(needed), cap));
+    }
+
+    private int clamp(int size, int cap) {
+        return Math.max(minPoolSize, Math.min(size, cap));
+    }
+
+    private void apply(int current, int target) {
+        if (target > current) {
+            shrinkVotes = 0;
+            resize(target);
+            return;
+        }
+        /*the deadband only holds back shrinking: a small growth may be what unblocks a stuck pool.*/
+        int deadband = Math.max(1, current / 10);
+        if (current - target < deadband) {
+            shrinkVotes = 0;
+            return;
+        }
+        /*shrink to the largest size asked for during the last shrinkTicks ticks.*/
+        shrinkTarget = shrinkVotes == 0 ? target : Math.max(shrinkTarget, target);
+        if (++shrinkVotes >= shrinkTicks) {
+            shrinkVotes = 0;
+            resize(shrinkTarget);
+        }
+    }
+
+    private void resize(int size) {
+        /*keep core <= maximum at every step, otherwise ThreadPoolExecutor rejects the change.*/
+        if (size > exec.getMaximumPoolSize()) {
+            exec.setMaximumPoolSize(size);
+            exec.setCorePoolSize(size);
+        } else {
+            exec.setCorePoolSize(size);
+            exec.setMaximumPoolSize(size);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package joshua.java.concurrency.chap7;
 
+import joshua.java.concurrency.jfr.CancellationEvent;
+
 import java.math.BigInteger;
 import java.util.concurrent.BlockingQueue;
 
@@ -40,6 +42,18 @@ public class PrimeProducer extends Thread {
 
         } catch (InterruptedException ex) {
             /*allow thread to exit*/
+            swallowed();
+        }
+    }
+
+    /*this thread owns its interruption policy, so it may swallow the interrupt: record that it did.*/
+    private static void swallowed() {
+        CancellationEvent event = new CancellationEvent();
+        if (event.shouldCommit()) {
+            event.setSource("PrimeProducer.run");
+            event.setAction(CancellationEvent.INTERRUPT_SWALLOWED);
+            event.setInterrupts(1);
+            event.commit();
         }
     }
 
@@ -1,8 +1,5 @@
 package joshua.java.concurrency.chap7;
 
-import net.jcip.annotations.GuardedBy;
-
-import java.net.URL;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -11,6 +8,37 @@ import java.util.concurrent.*;
  */
 public class StoppingThreadBasedService {
 
+    /*idle bulk workers exit after this, so an unused service holds no threads.*/
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final int parallelism;
+
+    /*tasks submitted but not finished per bulkExecute() call, beyond which the submitting thread blocks.*/
+    private final int maxInFlight;
+
+    /**
+     * shared by all bulkExecute() calls, so workers are reused instead of started per call.
+     */
+    private final ThreadPoolExecutor bulkExec;
+
+    public StoppingThreadBasedService() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public StoppingThreadBasedService(int parallelism) {
+        this(parallelism, 2 * parallelism);
+    }
+
+    public StoppingThreadBasedService(int parallelism, int maxInFlight) {
+        if (parallelism < 1 || maxInFlight < parallelism)
+            throw new IllegalArgumentException("parallelism: " + parallelism + ", maxInFlight: " + maxInFlight);
+        this.parallelism = parallelism;
+        this.maxInFlight = maxInFlight;
+        this.bulkExec = new ThreadPoolExecutor(parallelism, parallelism, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        this.bulkExec.allowCoreThreadTimeOut(true);
+    }
+
     /**
      * Usage Scenario
      * If a method needs to process a batch of tasks and does not return until all the tasks are finished, it can simplify service
@@ -24,7 +52,8 @@ public class StoppingThreadBasedService {
      */
     public void oneShotExecutionService(List<Runnable> tasks,long timeout,TimeUnit unit)
             throws InterruptedException {
-        ExecutorService exec= Executors.newCachedThreadPool();
+        /*bounded, a cached thread pool would start one thread per task for a large batch.*/
+        ExecutorService exec= Executors.newFixedThreadPool(parallelism);
         try {
             for(Runnable task:tasks){
                 exec.execute(task);
@@ -44,143 +73,87 @@ public class StoppingThreadBasedService {
             exec.awaitTermination(timeout, unit);
         }
     }
-}
-
-class TrackingExecutor extends AbstractExecutorService {
-    private final ExecutorService exec;
-    private final Set<Runnable> taskCancelledAtShutDown =
-            Collections.synchronizedSet(new HashSet<Runnable>());
-
-    public TrackingExecutor(ExecutorService exec) {
-        this.exec = exec;
-    }
-
-    @Override
-    public void shutdown() {
-        exec.shutdown();
-    }
 
-    @Override
-    public List<Runnable> shutdownNow() {
-        return exec.shutdownNow();
-    }
-
-    @Override
-    public boolean isShutdown() {
-        return exec.isShutdown();
-    }
-
-    @Override
-    public boolean isTerminated() {
-        return exec.isTerminated();
-    }
-
-    @Override
-    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
-        return exec.awaitTermination(timeout, unit);
-    }
-
-    public List<Runnable> getCancelledTasks(){
-        if(!exec.isTerminated())
-            throw new IllegalStateException(/*....*/);
-        return new ArrayList<Runnable>(taskCancelledAtShutDown);
-    }
-
-    public void execute(final Runnable runnable) {
-        exec.execute(new Runnable() {
-            @Override
-            public void run() {
-                try{
-                    runnable.run();
-                }finally {
-                    /**
-                     * add the thread to cancelledRecords if the running thread is interrupted and the whole
-                     * ExecuteService is shutdown.
-                     */
-                    if (isShutdown()&& Thread.currentThread().isInterrupted()) {
-                        taskCancelledAtShutDown.add(runnable);
+    /**
+     * Run a large batch of tasks with bounded parallelism and wait for them until the deadline.
+     * <p/>
+     * 1) at most "parallelism" tasks run at once, on workers shared by every call;
+     * 2) back-pressure: the calling thread blocks once "maxInFlight" tasks are submitted but not finished, so the
+     * work queue never holds the whole batch;
+     * 3) at the deadline, tasks still queued or running are cancelled through their Future(interrupting them), tasks
+     * not submitted yet are skipped, and both are reported as unfinished.
+     *
+     * @param tasks
+     * @param timeout deadline of the whole batch
+     * @param unit
+     * @return results, failures and unfinished tasks by index, with the batch's throughput
+     * @throws InterruptedException if the calling thread is interrupted, every submitted task is cancelled then.
+     */
+    public <T> BulkResult<T> bulkExecute(List<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + unit.toNanos(timeout);
+        final Semaphore inFlight = new Semaphore(maxInFlight);
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        try {
+            for (Callable<T> task : tasks) {
+                if (!inFlight.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+                    break;
+                FutureTask<T> future = new FutureTask<T>(task) {
+                    @Override
+                    protected void done() {
+                        /*called once on completion, failure or cancellation.*/
+                        inFlight.release();
                     }
+                };
+                try {
+                    bulkExec.execute(future);
+                } catch (RejectedExecutionException e) {
+                    inFlight.release();
+                    throw e;
+                }
+                futures.add(future);
+            }
+            for (Future<T> f : futures) {
+                try {
+                    f.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    break;
+                } catch (ExecutionException e) {
+                    /*collected below*/
+                } catch (CancellationException e) {
+                    /*collected below*/
                 }
             }
-        });
-    }
-}
-
-/**
- * An application of TrackingExecutor
- */
-abstract class WebCrawler {
-    private volatile TrackingExecutor exec;
-
-    @GuardedBy("this")
-    private final Set<URL> urlsToCrawl = new HashSet<URL>();
-
-    private final ConcurrentMap<URL, Boolean> seen=new ConcurrentHashMap<URL, Boolean>();
-
-    private static final long TIMEOUT=500;
-
-    private static final TimeUnit UNIT=TimeUnit.MILLISECONDS;
-
-    public WebCrawler(URL startURL) {
-
-    }
-
-    protected abstract List<URL> processpage(URL url);
-
-    public synchronized void start() {
-        exec = new TrackingExecutor(Executors.newCachedThreadPool());
-        for (URL url : urlsToCrawl) submitCrawlTask(url);
-        urlsToCrawl.clear();
-    }
-
-    public synchronized void stop() throws InterruptedException {
-        try {
-            saveUnCrawled(exec.shutdownNow());/*As soon as  exec marked as "ShutDown" state, all un-started tasks will be returned.*/
-            if (exec.awaitTermination(TIMEOUT, UNIT))/*return true when exec reaches "Terminated" state and current thread is not interrupted.*/
-                saveUnCrawled(exec.getCancelledTasks());
         } finally {
-            exec = null;
+            /*Harmless if task already completed.*/
+            for (Future<T> f : futures)
+                f.cancel(true);
         }
-    }
-
-    private void submitCrawlTask(URL u) {
-        exec.execute(new CrawlTask(u));
-    }
-
-    private void saveUnCrawled(List<Runnable> uncrawled) {
-        for (Runnable task : uncrawled) {
-            urlsToCrawl.add(((CrawlTask) task).getPage());
-        }
-    }
-
-    private class CrawlTask implements Runnable{
-        private final URL url;
-
-        public CrawlTask(URL url) {
-            this.url = url;
-        }
-
-        private int count=1;
-
-        boolean alreadyCrawled(){
-            return seen.putIfAbsent(url,true)!=null;
-        }
-
-        void markUnCrawled() {
-            seen.remove(url);
-            System.out.printf("marking %s uncrawled.", url);
-        }
-
-        public void run(){
-            for(URL link:processpage(url)){
-                if(Thread.currentThread().isInterrupted())
-                    return;
-                submitCrawlTask(link);
+        long elapsed = System.nanoTime() - start;
+
+        Map<Integer, T> results = new TreeMap<Integer, T>();
+        Map<Integer, Throwable> failures = new TreeMap<Integer, Throwable>();
+        List<Integer> unfinished = new ArrayList<Integer>();
+        for (int i = 0; i < tasks.size(); i++) {
+            Future<T> f = i < futures.size() ? futures.get(i) : null;
+            if (f == null || f.isCancelled()) {
+                unfinished.add(i);
+                continue;
+            }
+            try {
+                results.put(i, f.get());
+            } catch (ExecutionException e) {
+                failures.put(i, e.getCause());
             }
         }
+        return new BulkResult<T>(results, failures, unfinished, elapsed);
+    }
 
-        public URL getPage() {
-            return url;
-        }
+    /**
+     * stop the bulk workers, bulkExecute() rejects tasks afterwards.
+     */
+    public void shutdown() {
+        bulkExec.shutdown();
     }
-}
\ No newline at end of file
+}
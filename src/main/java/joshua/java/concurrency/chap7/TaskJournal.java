@@ -0,0 +1,332 @@
+package joshua.java.concurrency.chap7;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead journal of tasks: an append-only file recording every task when it is submitted and again when it
+ * has finished, so the tasks not finished yet survive a crash or a restart of the process instead of living only in
+ * memory.
+ * <p/>
+ * Record layout: [int length][int crc32 of kind and descriptor][byte kind][descriptor bytes].
+ * A record torn by a crash fails its length or checksum and ends the replay, records before it are kept.
+ * <p/>
+ * The last record of a descriptor decides: a task is live until a DONE record follows its PENDING or CANCELLED one.
+ * replay() compacts the file down to the live tasks, writing them to a new file which then atomically replaces the
+ * journal, so they are on disk at every moment.
+ * <p/>
+ * append() does no I/O: records are serialized by the caller and queued on a lock-free queue. Once a full batch is
+ * queued, a writer thread writes the records queued so far, one write per batch, and forces them; flush() does the same
+ * on the caller's thread. This is a group commit: a crash loses at most the records appended since the last batch was
+ * written.
+ * <p/>
+ * A failed write is truncated back to the end of the last good batch, and its records are kept to be written first
+ * by the next attempt, so a torn record never hides the records written after it. If even the truncation fails, the
+ * journal refuses further writes, every flush() reports it.
+ */
+@ThreadSafe
+public class TaskJournal implements Flushable {
+
+    /*submitted but never started, returned by shutdownNow().*/
+    public static final byte PENDING = 1;
+
+    /*started but interrupted by shutdownNow().*/
+    public static final byte CANCELLED = 2;
+
+    /*finished, or handed over to other storage: no longer to be replayed.*/
+    public static final byte DONE = 3;
+
+    private static final int HEADER_SIZE = 4 + 4 + 1;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /*the writer thread exits when idle that long, so an unused journal holds no thread.*/
+    private static final long WRITER_KEEP_ALIVE_SECONDS = 1;
+
+    private final File file;
+
+    private final TaskSerializer serializer;
+
+    private final int batchSize;
+
+    private final ConcurrentLinkedQueue<Record> queued = new ConcurrentLinkedQueue<Record>();
+
+    private final AtomicInteger queuedCount = new AtomicInteger();
+
+    /*only one thread writes the file at a time: the writer thread, flush() or replay().*/
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /*records taken off the queue but not on disk yet, after a failed write.*/
+    @GuardedBy("writeLock")
+    private final List<Record> unwritten = new ArrayList<Record>();
+
+    /*reported by the next flush().*/
+    @GuardedBy("writeLock")
+    private IOException failure;
+
+    /*set if a failed write couldn't be truncated: the file may end in a torn record, nothing may follow it.*/
+    @GuardedBy("writeLock")
+    private IOException broken;
+
+    private final ThreadPoolExecutor writer;
+
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+
+    private final Runnable writeBatches = new Runnable() {
+        @Override
+        public void run() {
+            writeLock.lock();
+            try {
+                writeQueued();
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+            } finally {
+                writeLock.unlock();
+                writeScheduled.set(false);
+            }
+            /*a batch filled up while we were writing.*/
+            scheduleWrite();
+        }
+    };
+
+    public TaskJournal(File file, TaskSerializer serializer, int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batchSize: " + batchSize);
+        this.file = file;
+        this.serializer = serializer;
+        this.batchSize = batchSize;
+        this.writer = new ThreadPoolExecutor(1, 1, WRITER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "journal-writer-" + TaskJournal.this.file.getName());
+                t.setDaemon(true);/*records not flushed are lost on exit anyway*/
+                return t;
+            }
+        });
+        this.writer.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * queue a record of the task, written with the next batch.
+     */
+    public void append(byte kind, Runnable task) {
+        byte[] descriptor;
+        try {
+            descriptor = serializer.serialize(task);
+        } catch (IOException e) {
+            recordFailure(e);
+            return;
+        }
+        queued.offer(new Record(kind, descriptor));
+        queuedCount.incrementAndGet();
+        scheduleWrite();
+    }
+
+    private void scheduleWrite() {
+        if (queuedCount.get() >= batchSize && writeScheduled.compareAndSet(false, true))
+            writer.execute(writeBatches);
+    }
+
+    /**
+     * write every record queued so far and force them to the storage device.
+     *
+     * @throws IOException if this write failed, or an earlier one lost records
+     */
+    @Override
+    public void flush() throws IOException {
+        writeLock.lock();
+        try {
+            writeQueued();
+            if (failure != null) {
+                IOException e = failure;
+                failure = null;
+                throw e;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * read back the live tasks recorded in the journal, each descriptor once, in the order they were first written,
+     * and compact the journal down to them.
+     */
+    public List<Runnable> replay() throws IOException {
+        Set<ByteBuffer> live = new LinkedHashSet<ByteBuffer>();
+        writeLock.lock();
+        try {
+            if (!file.exists())
+                return new ArrayList<Runnable>();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), READ_BUFFER_SIZE));
+            try {
+                CRC32 crc = new CRC32();
+                while (true) {
+                    int length;
+                    try {
+                        length = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if (length < 0 || length > file.length())
+                        break;/*torn record*/
+                    int checksum;
+                    byte[] record = new byte[1 + length];
+                    try {
+                        checksum = in.readInt();
+                        in.readFully(record);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    crc.reset();
+                    crc.update(record, 0, record.length);
+                    if ((int) crc.getValue() != checksum)
+                        break;
+                    ByteBuffer descriptor = ByteBuffer.wrap(record, 1, length).slice();
+                    if (record[0] == DONE)
+                        live.remove(descriptor);
+                    else
+                        live.add(descriptor);
+                }
+            } finally {
+                in.close();
+            }
+            compact(live);
+        } finally {
+            writeLock.unlock();
+        }
+        List<Runnable> tasks = new ArrayList<Runnable>(live.size());
+        for (ByteBuffer d : live)
+            tasks.add(serializer.deserialize(bytes(d)));
+        return tasks;
+    }
+
+    /**
+     * discard the journal, every task recorded in it is forgotten.
+     */
+    public void clear() throws IOException {
+        writeLock.lock();
+        try {
+            if (file.exists() && !file.delete())
+                throw new IOException("Can't delete " + file);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void recordFailure(IOException e) {
+        writeLock.lock();
+        try {
+            if (failure == null)
+                failure = e;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * rewrite the journal as one PENDING record per live descriptor: written and forced to a new file first, which
+     * then replaces the journal, dropping the finished tasks and any torn tail.
+     */
+    @GuardedBy("writeLock")
+    private void compact(Collection<ByteBuffer> live) throws IOException {
+        File compacted = new File(file.getPath() + ".compact");
+        FileChannel channel = new FileOutputStream(compacted).getChannel();
+        try {
+            List<Record> records = new ArrayList<Record>(live.size());
+            for (ByteBuffer d : live)
+                records.add(new Record(PENDING, bytes(d)));
+            writeBatch(channel, records, new CRC32());
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static byte[] bytes(ByteBuffer descriptor) {
+        ByteBuffer d = descriptor.duplicate();
+        byte[] bytes = new byte[d.remaining()];
+        d.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * write the records queued when called, not the ones appended meanwhile, so the writer never chases appenders.
+     */
+    @GuardedBy("writeLock")
+    private void writeQueued() throws IOException {
+        if (broken != null)
+            throw broken;
+        Record r;
+        for (int n = queuedCount.get(); n > 0 && (r = queued.poll()) != null; n--) {
+            queuedCount.decrementAndGet();
+            unwritten.add(r);
+        }
+        if (unwritten.isEmpty())
+            return;
+        FileChannel channel = new FileOutputStream(file, true).getChannel();
+        try {
+            long good = channel.size();
+            try {
+                CRC32 crc = new CRC32();
+                for (int from = 0; from < unwritten.size(); from += batchSize)
+                    writeBatch(channel, unwritten.subList(from, Math.min(unwritten.size(), from + batchSize)), crc);
+                channel.force(false);
+                unwritten.clear();
+            } catch (IOException e) {
+                try {
+                    channel.truncate(good);
+                } catch (IOException t) {
+                    broken = t;
+                }
+                throw e;
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static void writeBatch(FileChannel channel, List<Record> batch, CRC32 crc) throws IOException {
+        int size = 0;
+        for (Record r : batch)
+            size += HEADER_SIZE + r.descriptor.length;
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        for (Record r : batch) {
+            crc.reset();
+            crc.update(r.kind);
+            crc.update(r.descriptor, 0, r.descriptor.length);
+            buf.putInt(r.descriptor.length);
+            buf.putInt((int) crc.getValue());
+            buf.put(r.kind);
+            buf.put(r.descriptor);
+        }
+        buf.flip();
+        while (buf.hasRemaining())
+            channel.write(buf);
+    }
+
+    private static final class Record {
+        private final byte kind;
+        private final byte[] descriptor;
+
+        Record(byte kind, byte[] descriptor) {
+            this.kind = kind;
+            this.descriptor = descriptor;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package joshua.java.concurrency.chap7;
+
+import java.io.IOException;
+
+/**
+ * Converts a task into the descriptor written to a TaskJournal and back, e.g. a CrawlTask into the URL it crawls.
+ * <p/>
+ * serialize() is called from whatever thread records the task(a pool thread when the task is cancelled at shutdown),
+ * so implementations should be thread-safe and should not block.
+ */
+public interface TaskSerializer {
+
+    byte[] serialize(Runnable task) throws IOException;
+
+    Runnable deserialize(byte[] descriptor) throws IOException;
+}
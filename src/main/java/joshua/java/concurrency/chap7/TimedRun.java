@@ -1,5 +1,6 @@
 package joshua.java.concurrency.chap7;
 
+import joshua.java.concurrency.jfr.CancellationEvent;
 import joshua.java.concurrency.utils.UtilityHelper;
 
 import java.util.concurrent.*;
@@ -15,6 +16,20 @@ import java.util.concurrent.*;
 public abstract class TimedRun {
 
     public abstract void timeRun(Runnable r, long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * @param solution 2 or 3. Solution1 is not offered: it interrupts the caller even after the task completed.
+     */
+    public static TimedRun newInstance(int solution) {
+        switch (solution) {
+            case 2:
+                return new Solution2();
+            case 3:
+                return new Solution3();
+            default:
+                throw new IllegalArgumentException("No such solution: " + solution);
+        }
+    }
 }
 
 /**
@@ -105,7 +120,12 @@ class Solution2 extends TimedRun{
               */
              task.get(timeout,unit);
          }catch(TimeoutException e){/*if the get  timed out*/
-
+             CancellationEvent event=new CancellationEvent();
+             if(event.shouldCommit()){
+                 event.setSource("Solution3.timeRun");
+                 event.setAction(CancellationEvent.TASK_CANCELLED);
+                 event.commit();
+             }
          }catch(ExecutionException e){/*if the task throws exception*/
             throw UtilityHelper.launderThrowable(e.getCause());
          }finally {
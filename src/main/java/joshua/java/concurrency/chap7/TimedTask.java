@@ -0,0 +1,58 @@
+package joshua.java.concurrency.chap7;
+
+import joshua.java.concurrency.jfr.TaskExecutionEvent;
+
+/**
+ * A task submitted while TaskExecutionEvent is enabled, carrying the event begun at submission until the task has run.
+ * TrackingExecutor, which wraps every task anyway, wraps them with wrap() in execute() and hands back the caller's
+ * tasks with unwrap() in shutdownNow(). CancellingExecutor keeps its queue unwrapped and stamps tasks instead.
+ */
+class TimedTask implements Runnable {
+
+    private final String executor;
+
+    private final Runnable task;
+
+    private final TaskExecutionEvent event;
+
+    private final long queuedNanos = System.nanoTime();
+
+    private TimedTask(String executor, Runnable task, TaskExecutionEvent event) {
+        this.executor = executor;
+        this.task = task;
+        this.event = event;
+    }
+
+    /**
+     * @return task itself when the event is disabled, so recording costs nothing then.
+     */
+    static Runnable wrap(String executor, Runnable task) {
+        /*a probe which doesn't escape, so the JIT removes its allocation.*/
+        if (task == null || !new TaskExecutionEvent().isEnabled())
+            return task;
+        TaskExecutionEvent event = new TaskExecutionEvent();
+        event.begin();
+        return new TimedTask(executor, task, event);
+    }
+
+    static Runnable unwrap(Runnable r) {
+        return r instanceof TimedTask ? ((TimedTask) r).task : r;
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        try {
+            task.run();
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.setExecutor(executor);
+                event.setTaskClass(task.getClass());
+                event.setQueueWait(start - queuedNanos);
+                event.setRunTime(System.nanoTime() - start);
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package joshua.java.concurrency.chap7;
+
+import joshua.java.concurrency.jfr.CancellationEvent;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * An ExecutorService which remembers the tasks cancelled by shutdownNow(), so they can be resumed later.
+ * <p/>
+ * With a TaskJournal, every task is journaled as PENDING when submitted and DONE when it has run, so the un-started,
+ * running and cancelled tasks survive a crash or a restart of the process.
+ */
+class TrackingExecutor extends AbstractExecutorService {
+    private final ExecutorService exec;
+    private final Set<Runnable> taskCancelledAtShutDown =
+            Collections.newSetFromMap(new ConcurrentHashMap<Runnable, Boolean>());
+    private final TaskJournal journal;
+
+    public TrackingExecutor(ExecutorService exec) {
+        this(exec, null);
+    }
+
+    /**
+     * @param journal where to record the tasks until they have run, or null to keep cancelled tasks in memory only.
+     */
+    public TrackingExecutor(ExecutorService exec, TaskJournal journal) {
+        this.exec = exec;
+        this.journal = journal;
+    }
+
+    @Override
+    public void shutdown() {
+        exec.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> unstarted = new ArrayList<Runnable>();
+        for (Runnable r : exec.shutdownNow()) {
+            /*hand back the caller's tasks, not our wrappers.*/
+            r = TimedTask.unwrap(r);
+            Runnable task = r instanceof TrackedTask ? ((TrackedTask) r).task : r;
+            unstarted.add(task);/*still PENDING in the journal.*/
+        }
+        return unstarted;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return exec.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return exec.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return exec.awaitTermination(timeout, unit);
+    }
+
+    public List<Runnable> getCancelledTasks(){
+        if(!exec.isTerminated())
+            throw new IllegalStateException(/*....*/);
+        return new ArrayList<Runnable>(taskCancelledAtShutDown);
+    }
+
+    /**
+     * write the journal records appended so far to disk, e.g. at shutdown or periodically.
+     *
+     * @throws IOException
+     */
+    public void syncJournal() throws IOException {
+        if (journal != null)
+            journal.flush();
+    }
+
+    public void execute(final Runnable runnable) {
+        /*write-ahead: journaled before it can run, and DONE once it has.*/
+        if (journal != null)
+            journal.append(TaskJournal.PENDING, runnable);
+        try {
+            exec.execute(TimedTask.wrap(TrackingExecutor.class.getName(), new TrackedTask(runnable)));
+        } catch (RejectedExecutionException e) {
+            if (journal != null)
+                journal.append(TaskJournal.DONE, runnable);/*the caller keeps it*/
+            throw e;
+        }
+    }
+
+    private class TrackedTask implements Runnable {
+        private final Runnable task;
+
+        TrackedTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try{
+                task.run();
+            }finally {
+                /**
+                 * add the thread to cancelledRecords if the running thread is interrupted and the whole
+                 * ExecuteService is shutdown.
+                 */
+                if (!(isShutdown()&& Thread.currentThread().isInterrupted())) {
+                    if (journal != null)
+                        journal.append(TaskJournal.DONE, task);
+                } else {
+                    taskCancelledAtShutDown.add(task);
+                    if (journal != null)
+                        journal.append(TaskJournal.CANCELLED, task);
+                    CancellationEvent event = new CancellationEvent();
+                    if (event.shouldCommit()) {
+                        event.setSource("TrackingExecutor");
+                        event.setAction(CancellationEvent.TASK_CANCELLED);
+                        event.commit();
+                    }
+                }
+            }
+        }
+    }
+}
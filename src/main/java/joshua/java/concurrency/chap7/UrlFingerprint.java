@@ -0,0 +1,53 @@
+package joshua.java.concurrency.chap7;
+
+import java.net.URL;
+
+/**
+ * 64-bit fingerprints of URLs for a FingerprintSet.
+ * <p/>
+ * URL.equals() and URL.hashCode() resolve the host name, which may block on DNS. The fingerprint hashes the
+ * URL's fields in place instead: protocol and host case-insensitively, the effective port, and the file(path and query).
+ * The fragment is ignored, since it names a position in the same page. Nothing is allocated.
+ */
+public final class UrlFingerprint {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private UrlFingerprint() {
+    }
+
+    public static long of(URL url) {
+        long h = FNV_OFFSET;
+        h = hash(h, url.getProtocol(), true);
+        h = hash(h, url.getHost(), true);
+        int port = url.getPort();
+        h = (h ^ (port == -1 ? url.getDefaultPort() : port)) * FNV_PRIME;
+        h = hash(h, url.getFile(), false);
+        return mix(h);
+    }
+
+    private static long hash(long h, String s, boolean ignoreCase) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (ignoreCase)
+                c = Character.toLowerCase(c);
+            h = (h ^ c) * FNV_PRIME;
+        }
+        /*separator, so that "ab"+"c" and "a"+"bc" differ.*/
+        return (h ^ 0xff) * FNV_PRIME;
+    }
+
+    /**
+     * finalization step of MurmurHash3, spreads FNV's weak high bits over the whole word.
+     */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
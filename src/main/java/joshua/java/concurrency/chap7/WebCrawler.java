@@ -0,0 +1,339 @@
+package joshua.java.concurrency.chap7;
+
+import net.jcip.annotations.GuardedBy;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * An application of TrackingExecutor
+ * <p/>
+ * Discovered links go to a CrawlFrontier rather than straight to the executor: a dispatcher thread hands the
+ * executor one URL at a time, when its host is ready and a fetch slot is free, so the executor's queue stays short and
+ * a full frontier blocks the CrawlTasks submitting links.
+ * <p/>
+ * A CrawlTask frees its fetch slot before queueing its links, so the executor has a second thread per slot for the
+ * tasks blocked on a full frontier. Its thread count is bounded: once every thread is blocked, the next fetches wait
+ * in the executor's queue, at most one per fetch slot, instead of each starting a thread.
+ */
+abstract class WebCrawler {
+    private volatile TrackingExecutor exec;
+
+    private final CrawlFrontier frontier;
+
+    @GuardedBy("this")
+    private Dispatcher dispatcher;
+
+    /*fetches in progress, released as soon as processpage() returns.*/
+    private volatile Semaphore fetchPermits;
+
+    @GuardedBy("this")
+    private final Set<URL> urlsToCrawl = new HashSet<URL>();
+
+    /*fingerprints of the URLs seen, a few bytes per URL instead of a ConcurrentHashMap entry.*/
+    private final FingerprintSet seen;
+
+    /*null if un-crawled URLs are only kept in memory between stop() and start().*/
+    private final TaskJournal journal;
+
+    /*spilled URLs still PENDING in the journal, DONE once the overflow queue is forced. Updated under the frontier's lock.*/
+    private final ConcurrentMap<String, CrawlTask> unforced = new ConcurrentHashMap<String, CrawlTask>();
+
+    private static final long TIMEOUT=500;
+
+    private static final TimeUnit UNIT=TimeUnit.MILLISECONDS;
+
+    private static final int JOURNAL_BATCH=1024;
+
+    private static final int DEFAULT_FRONTIER_CAPACITY=100000;
+
+    /*politeness: rest at least a second, and ten times the last fetch time, between two fetches of a host.*/
+    private static final long DEFAULT_HOST_DELAY=1000;
+
+    private static final double DEFAULT_DELAY_FACTOR=10;
+
+    private static final int MAX_CONCURRENT_FETCHES=64;
+
+    /*one thread fetching and one queueing links per fetch slot.*/
+    static final int MAX_CRAWL_THREADS=2*MAX_CONCURRENT_FETCHES;
+
+    private static final long THREAD_KEEP_ALIVE=60;
+
+    /*how long a CrawlTask waits for room in a full frontier before queueing a link past its capacity.*/
+    private static final long SUBMIT_TIMEOUT=5000;
+
+    public WebCrawler(URL startURL, long expectedUrls) {
+        this(startURL, null, expectedUrls);
+    }
+
+    /**
+     * @param journalFile  where discovered URLs are journaled until crawled, resumed from by start() after a restart
+     *                     or a crash.
+     * @param expectedUrls URLs the crawl may discover, the seen-set is a ConcurrentCuckooFilter sized for them. The
+     *                     crawl fails with IllegalStateException once the filter is full, rather than skip new URLs.
+     */
+    public WebCrawler(URL startURL, File journalFile, long expectedUrls) {
+        this(startURL, journalFile, new ConcurrentCuckooFilter(expectedUrls));
+    }
+
+    /**
+     * @param seen the seen-set, a ConcurrentCuckooFilter sized for the crawl, or a ConcurrentLongHashSet when no URL
+     *             may be skipped because of a false positive.
+     */
+    public WebCrawler(URL startURL, File journalFile, FingerprintSet seen) {
+        this(startURL, journalFile, seen,
+                new CrawlFrontier(DEFAULT_FRONTIER_CAPACITY, DEFAULT_HOST_DELAY, UNIT, DEFAULT_DELAY_FACTOR));
+    }
+
+    /**
+     * @param frontier holds the URLs discovered but not fetched yet, and sets the politeness of the crawl. With a
+     *                 MappedSegmentQueue overflow, the URLs it spilled survive stop() and a restart on disk.
+     */
+    public WebCrawler(URL startURL, File journalFile, FingerprintSet seen, CrawlFrontier frontier) {
+        this.seen = seen;
+        this.frontier = frontier;
+        urlsToCrawl.add(startURL);
+        journal = journalFile == null ? null : new TaskJournal(journalFile, new CrawlTaskSerializer(), JOURNAL_BATCH);
+        if (journal != null) {
+            /*spilled URLs are the overflow queue's to keep once it is forced, until they are back in memory.*/
+            frontier.setOverflowListener(new CrawlFrontier.OverflowListener() {
+                @Override
+                public void spilled(URL url) {
+                    unforced.put(url.toString(), new CrawlTask(url));
+                }
+
+                @Override
+                public void forced() {
+                    for (CrawlTask task : unforced.values())
+                        journal.append(TaskJournal.DONE, task);
+                    unforced.clear();
+                }
+
+                @Override
+                public void reloaded(URL url) {
+                    /*back before being forced: its PENDING record is still live, and no DONE may follow it.*/
+                    unforced.remove(url.toString());
+                    journal.append(TaskJournal.PENDING, new CrawlTask(url));
+                }
+            });
+        }
+    }
+
+    protected abstract List<URL> processpage(URL url);
+
+    /**
+     * score of a URL in the frontier, higher is fetched first. By default shallow pages come first.
+     */
+    protected double priority(URL url) {
+        String path = url.getPath();
+        int depth = 0;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/')
+                depth++;
+        }
+        return 1.0 / (1 + depth);
+    }
+
+    public synchronized void start() throws IOException {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_CRAWL_THREADS, MAX_CRAWL_THREADS,
+                THREAD_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        pool.allowCoreThreadTimeOut(true);
+        exec = new TrackingExecutor(pool, journal);
+        fetchPermits = new Semaphore(MAX_CONCURRENT_FETCHES);
+        if (journal != null) {
+            /*compacted to the URLs not crawled yet, which stay journaled until they are.*/
+            for (Runnable task : journal.replay())
+                urlsToCrawl.add(((CrawlTask) task).getPage());
+        }
+        /*saved URLs were admitted once already, restore them whatever the frontier's bound and the seen-set say.*/
+        for (URL url : urlsToCrawl) {
+            seen.add(UrlFingerprint.of(url));
+            CrawlFrontier.Admission admission = frontier.add(url, priority(url));
+            if (journal != null)
+                journalAdmission(new CrawlTask(url), admission);
+        }
+        urlsToCrawl.clear();
+        dispatcher = new Dispatcher(exec, fetchPermits);
+        dispatcher.start();
+    }
+
+    public synchronized void stop() throws InterruptedException, IOException {
+        try {
+            /*stop feeding the executor first, so nothing is submitted after shutdownNow().*/
+            dispatcher.cancel();
+            dispatcher.join();
+            saveUnCrawled(exec.shutdownNow());/*As soon as  exec marked as "ShutDown" state, all un-started tasks will be returned.*/
+            if (exec.awaitTermination(TIMEOUT, UNIT))/*return true when exec reaches "Terminated" state and current thread is not interrupted.*/
+                saveUnCrawled(exec.getCancelledTasks());
+            /*only the in-memory part of the frontier comes back to the heap, spilled URLs stay in their segments.
+              Both are journaled already.*/
+            urlsToCrawl.addAll(frontier.drain());
+            frontier.force();
+            exec.syncJournal();
+            frontier.commitReloads(journal);
+        } finally {
+            exec = null;
+            dispatcher = null;
+        }
+    }
+
+    /**
+     * write the spilled URLs and then the journal to disk, so a crash loses nothing discovered so far, and only then
+     * let the overflow queue forget the URLs read back from it.
+     */
+    public void checkpoint() throws IOException {
+        frontier.force();
+        /*flushes the journal first.*/
+        frontier.commitReloads(journal);
+    }
+
+    /**
+     * queue a newly discovered link in the frontier, blocking up to SUBMIT_TIMEOUT while it is full.
+     */
+    private void submitCrawlTask(URL u) {
+        CrawlTask task = new CrawlTask(u);
+        if (task.alreadyCrawled())
+            return;
+        /*write-ahead: journaled before it is queued.*/
+        if (journal != null)
+            journal.append(TaskJournal.PENDING, task);
+        CrawlFrontier.Admission admission;
+        try {
+            admission = frontier.admit(u, priority(u), SUBMIT_TIMEOUT, UNIT);
+        } catch (InterruptedException e) {
+            /*stopping: our page is re-run after a restart, and the link stays PENDING in the journal meanwhile.*/
+            task.markUnCrawled();
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (admission == CrawlFrontier.Admission.REJECTED) {
+            /*
+               still full after the wait: every thread may be blocked here while the dispatcher waits for one of
+               them, so queue the link past capacity rather than wait on, or drop it.
+             */
+            admission = frontier.add(u, priority(u));
+        }
+        /*the spilled links stay PENDING in the journal until forced, in batches.*/
+        if (admission == CrawlFrontier.Admission.SPILLED && unforced.size() >= JOURNAL_BATCH)
+            frontier.force();
+    }
+
+    /**
+     * a URL kept in memory stays PENDING until crawled. A spilled one stays PENDING until the overflow queue is
+     * forced, which keeps it on disk from then on, and is journaled again when it is read back.
+     */
+    private void journalAdmission(CrawlTask task, CrawlFrontier.Admission admission) {
+        if (admission == CrawlFrontier.Admission.QUEUED)
+            journal.append(TaskJournal.PENDING, task);
+    }
+
+    private void saveUnCrawled(List<Runnable> uncrawled) {
+        for (Runnable task : uncrawled) {
+            urlsToCrawl.add(((CrawlTask) task).getPage());
+        }
+    }
+
+    /**
+     * Moves URLs from the frontier to the executor, each once its host is ready and a fetch slot is free.
+     * Runs on its own thread rather than in the executor, so shutdownNow() only ever sees CrawlTasks.
+     */
+    private class Dispatcher extends Thread {
+        private final TrackingExecutor exec;
+
+        private final Semaphore fetchPermits;
+
+        Dispatcher(TrackingExecutor exec, Semaphore fetchPermits) {
+            this.exec = exec;
+            this.fetchPermits = fetchPermits;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    fetchPermits.acquire();
+                    URL url;
+                    try {
+                        url = frontier.take();
+                    } catch (InterruptedException e) {
+                        fetchPermits.release();
+                        throw e;
+                    }
+                    exec.execute(new CrawlTask(url));
+                }
+            } catch (InterruptedException ex) {
+                /*allow thread to exit*/
+            }
+        }
+
+        public void cancel() {
+            interrupt();
+        }
+    }
+
+    /**
+     * a CrawlTask is journaled as the UTF-8 form of its URL.
+     */
+    private class CrawlTaskSerializer implements TaskSerializer {
+        private final Charset UTF8 = Charset.forName("UTF-8");
+
+        @Override
+        public byte[] serialize(Runnable task) {
+            return ((CrawlTask) task).getPage().toString().getBytes(UTF8);
+        }
+
+        @Override
+        public Runnable deserialize(byte[] descriptor) throws IOException {
+            return new CrawlTask(new URL(new String(descriptor, UTF8)));
+        }
+    }
+
+    private class CrawlTask implements Runnable{
+        private final URL url;
+
+        private final long fingerprint;
+
+        /*the permits of the run which created us, not of a later start().*/
+        private final Semaphore permits = fetchPermits;
+
+        public CrawlTask(URL url) {
+            this.url = url;
+            this.fingerprint = UrlFingerprint.of(url);
+        }
+
+        private int count=1;
+
+        boolean alreadyCrawled(){
+            return !seen.add(fingerprint);
+        }
+
+        void markUnCrawled() {
+            seen.remove(fingerprint);
+        }
+
+        public void run(){
+            long start = System.nanoTime();
+            List<URL> links;
+            try {
+                links = processpage(url);
+            } finally {
+                /*the host may rest now, and the fetch slot is free while we queue the links.*/
+                frontier.done(url, System.nanoTime() - start);
+                permits.release();
+            }
+            for(URL link:links){
+                if(Thread.currentThread().isInterrupted())
+                    return;
+                submitCrawlTask(link);
+            }
+        }
+
+        public URL getPage() {
+            return url;
+        }
+    }
+}
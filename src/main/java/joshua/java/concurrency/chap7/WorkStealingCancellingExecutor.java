@@ -0,0 +1,276 @@
+package joshua.java.concurrency.chap7;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A work-stealing counterpart of CancellingExecutor.
+ * <p/>
+ * Workers of a ThreadPoolExecutor all take from one shared BlockingQueue, whose lock becomes the hottest spot when many
+ * short tasks are submitted. Here every worker owns a lock-free deque instead:
+ * 1) tasks submitted from a worker of this pool(e.g. a CrawlTask submitting the links it found) are pushed to the head
+ * of the worker's own deque and run LIFO, staying on the thread whose cache already holds their data;
+ * 2) tasks submitted from outside are spread round-robin over the tails of the deques;
+ * 3) a worker whose deque is empty steals from the tail of the others before parking.
+ * <p/>
+ * newTaskFor() keeps the same hook as CancellingExecutor, so a CancellableTask can still be cancelled through its
+ * Future even when blocked in calls which are non-responsible to interruption.
+ * <p/>
+ * shutdown() lets queued tasks finish, shutdownNow() returns the un-started ones and interrupts the workers, as
+ * TrackingExecutor and WebCrawler.stop() expect from a standard ExecutorService.
+ */
+@ThreadSafe
+public class WorkStealingCancellingExecutor extends AbstractExecutorService {
+
+    private static final int RUNNING = 0;
+    private static final int SHUTDOWN = 1;
+    private static final int STOP = 2;
+
+    private final Worker[] workers;
+
+    /*workers which may be parked, polled by submitters to hand out wake-ups.*/
+    private final ConcurrentLinkedQueue<Worker> idleWorkers = new ConcurrentLinkedQueue<Worker>();
+
+    private final AtomicInteger nextQueue = new AtomicInteger();
+
+    /*the worker owning the current thread, if it is one of ours.*/
+    private final ThreadLocal<Worker> currentWorker = new ThreadLocal<Worker>();
+
+    private final AtomicInteger runState = new AtomicInteger(RUNNING);
+
+    private final AtomicInteger liveWorkers;
+
+    private final CountDownLatch terminated = new CountDownLatch(1);
+
+    public WorkStealingCancellingExecutor(int parallelism) {
+        this(parallelism, Executors.defaultThreadFactory());
+    }
+
+    public WorkStealingCancellingExecutor(int parallelism, ThreadFactory threadFactory) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism: " + parallelism);
+        workers = new Worker[parallelism];
+        for (int i = 0; i < parallelism; i++)
+            workers[i] = new Worker(i);
+        liveWorkers = new AtomicInteger(parallelism);
+        for (Worker w : workers) {
+            w.thread = threadFactory.newThread(w);
+            if (w.thread == null)
+                throw new IllegalStateException("ThreadFactory returned null");
+        }
+        for (Worker w : workers)
+            w.thread.start();
+    }
+
+    /**
+     * Overrode newTaskFor() method to return a Future supporting cancellation, as CancellingExecutor does.
+     */
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        if (callable instanceof NonStandardCancellation.CancellableTask)
+            return ((NonStandardCancellation.CancellableTask<T>) callable).newTask();
+        else
+            return super.newTaskFor(callable);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null)
+            throw new NullPointerException();
+        if (runState.get() != RUNNING)
+            throw new RejectedExecutionException("Executor has been shut down");
+        Worker self = currentWorker.get();
+        if (self != null) {
+            /*local submission: depth first on the submitting worker.*/
+            self.deque.offerFirst(command);
+        } else {
+            int i = (nextQueue.getAndIncrement() & Integer.MAX_VALUE) % workers.length;
+            workers[i].deque.offerLast(command);
+        }
+        signalWork();
+        if (runState.get() != RUNNING) {
+            /*
+               lost the race with shutdown(): the workers may have found every deque empty and exited already.
+               A task still queued is taken back and rejected; one which is gone was either taken by a live worker
+               or returned by shutdownNow().
+             */
+            for (Worker w : workers) {
+                if (w.deque.remove(command))
+                    throw new RejectedExecutionException("Executor has been shut down");
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        runState.compareAndSet(RUNNING, SHUTDOWN);
+        wakeAll();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        int s;
+        while ((s = runState.get()) < STOP && !runState.compareAndSet(s, STOP)) {
+            /*retry*/
+        }
+        List<Runnable> unstarted = new ArrayList<Runnable>();
+        for (Worker w : workers) {
+            Runnable r;
+            while ((r = w.deque.pollLast()) != null)
+                unstarted.add(r);
+        }
+        for (Worker w : workers)
+            w.thread.interrupt();
+        wakeAll();
+        return unstarted;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return runState.get() != RUNNING;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+    /**
+     * @return number of tasks queued but not started, summed over all workers.
+     */
+    public int getQueuedTaskCount() {
+        int n = 0;
+        for (Worker w : workers)
+            n += w.deque.size();
+        return n;
+    }
+
+    /**
+     * Wake up one parked worker, if any. Must be called after the task is visible in a deque: a worker publishes
+     * parked=true before re-scanning the deques, so either it sees the task or we see it parked.
+     */
+    private void signalWork() {
+        Worker w;
+        while ((w = idleWorkers.poll()) != null) {
+            w.inIdleQueue.set(false);
+            if (w.parked) {
+                LockSupport.unpark(w.thread);
+                return;
+            }
+        }
+    }
+
+    private void wakeAll() {
+        for (Worker w : workers)
+            LockSupport.unpark(w.thread);
+    }
+
+    private boolean allQueuesEmpty() {
+        for (Worker w : workers) {
+            if (!w.deque.isEmpty())
+                return false;
+        }
+        return true;
+    }
+
+    private final class Worker implements Runnable {
+
+        private final int index;
+
+        private final ConcurrentLinkedDeque<Runnable> deque = new ConcurrentLinkedDeque<Runnable>();
+
+        private final AtomicBoolean inIdleQueue = new AtomicBoolean();
+
+        private volatile boolean parked;
+
+        private Thread thread;
+
+        Worker(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            currentWorker.set(this);
+            try {
+                while (true) {
+                    Runnable task = findTask();
+                    if (task == null) {
+                        int s = runState.get();
+                        if (s == STOP || (s == SHUTDOWN && allQueuesEmpty()))
+                            return;
+                        task = awaitTask();
+                        if (task == null)
+                            continue;
+                    }
+                    runTask(task);
+                }
+            } finally {
+                if (liveWorkers.decrementAndGet() == 0)
+                    terminated.countDown();
+            }
+        }
+
+        private Runnable findTask() {
+            Runnable task = deque.pollFirst();
+            if (task != null)
+                return task;
+            /*steal from the tail of the others, starting next to ourselves to spread the thieves.*/
+            for (int i = 1; i < workers.length; i++) {
+                task = workers[(index + i) % workers.length].deque.pollLast();
+                if (task != null)
+                    return task;
+            }
+            return null;
+        }
+
+        private Runnable awaitTask() {
+            /*
+               publish parked before (re-)joining the idle queue, so whoever polls us from the queue sees it and
+               unparks us, even when a stale entry of ours is polled concurrently.
+             */
+            parked = true;
+            try {
+                if (inIdleQueue.compareAndSet(false, true))
+                    idleWorkers.offer(this);
+                Runnable task = findTask();
+                if (task != null || runState.get() != RUNNING)
+                    return task;
+                LockSupport.park(this);
+                return null;
+            } finally {
+                parked = false;
+            }
+        }
+
+        private void runTask(Runnable task) {
+            /*
+               the same interruption policy as ThreadPoolExecutor: a cancel(true) interrupt must not leak into
+               the next task, but a stopping pool keeps its workers interrupted.
+             */
+            if (runState.get() == STOP) {
+                if (!thread.isInterrupted())
+                    thread.interrupt();
+            } else {
+                Thread.interrupted();
+            }
+            try {
+                task.run();
+            } catch (Throwable t) {
+                /*FutureTask captures task failures, a plain Runnable's failure is reported and the worker survives.*/
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package joshua.java.concurrency.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * A cancellation or interrupt handled without propagating an InterruptedException: restored for the caller to see,
+ * swallowed by the owner of the thread, or a task cancelled. An instant event, only its enablement can be set.
+ */
+@Name(CancellationEvent.NAME)
+@Label("Cancellation")
+@Category({"Concurrency Pearls", "Cancellation"})
+@Description("Interrupt restored or swallowed, or task cancelled")
+public class CancellationEvent extends Event {
+
+    public static final String NAME = "joshua.java.concurrency.Cancellation";
+
+    /*values of action.*/
+    public static final String INTERRUPT_RESTORED = "interrupt restored";
+    public static final String INTERRUPT_SWALLOWED = "interrupt swallowed";
+    public static final String TASK_CANCELLED = "task cancelled";
+
+    @Label("Source")
+    @Description("Class and method which handled it")
+    private String source;
+
+    @Label("Action")
+    private String action;
+
+    @Label("Interrupts")
+    @Description("Interrupts received before the action, when retrying on interrupt")
+    private int interrupts;
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    public void setAction(String action) {
+        this.action = action;
+    }
+
+    public void setInterrupts(int interrupts) {
+        this.interrupts = interrupts;
+    }
+}
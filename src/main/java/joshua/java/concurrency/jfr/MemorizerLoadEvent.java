@@ -0,0 +1,33 @@
+package joshua.java.concurrency.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * A Memorizer cache miss: the computation of a value by the thread which won the putIfAbsent() race. The duration is
+ * the load time, which every other thread asking for the same key spends waiting on its Future.
+ */
+@Name(MemorizerLoadEvent.NAME)
+@Label("Memorizer Load")
+@Category({"Concurrency Pearls", "Cache"})
+@Description("Computation of a value missing from a Memorizer cache")
+@Threshold("20 ms")
+@StackTrace(false)
+public class MemorizerLoadEvent extends Event {
+
+    public static final String NAME = "joshua.java.concurrency.MemorizerLoad";
+
+    @Label("Key")
+    private String key;
+
+    @Label("Failed")
+    @Description("The computation threw, or was cancelled")
+    private boolean failed;
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public void setFailed(boolean failed) {
+        this.failed = failed;
+    }
+}
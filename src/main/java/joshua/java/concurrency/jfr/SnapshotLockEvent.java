@@ -0,0 +1,31 @@
+package joshua.java.concurrency.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Time a vehicle tracker held its lock to copy a snapshot of every location, during which updates are blocked. The
+ * JDK's own Java Monitor Wait/Enter events show the other side: how long the updaters waited.
+ */
+@Name(SnapshotLockEvent.NAME)
+@Label("Tracker Snapshot Lock")
+@Category({"Concurrency Pearls", "Lock"})
+@Description("Time spent holding a vehicle tracker's lock for a snapshot")
+@Threshold("20 ms")
+public class SnapshotLockEvent extends Event {
+
+    public static final String NAME = "joshua.java.concurrency.SnapshotLock";
+
+    @Label("Tracker Class")
+    private Class<?> trackerClass;
+
+    @Label("Vehicles")
+    private int vehicles;
+
+    public void setTrackerClass(Class<?> trackerClass) {
+        this.trackerClass = trackerClass;
+    }
+
+    public void setVehicles(int vehicles) {
+        this.vehicles = vehicles;
+    }
+}
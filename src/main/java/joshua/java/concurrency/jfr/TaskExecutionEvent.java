@@ -0,0 +1,49 @@
+package joshua.java.concurrency.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * One task run by an executor, from execute() to the end of its run, so the threshold applies to the latency seen by
+ * the submitter. It is split into queueWait and runTime: a long queue wait with a short run means the pool is too
+ * small, or blocked by other tasks. Committed by the worker thread which ran the task.
+ */
+@Name(TaskExecutionEvent.NAME)
+@Label("Task Execution")
+@Category({"Concurrency Pearls", "Executor"})
+@Description("Queue wait and run time of an executor task")
+@Threshold("20 ms")
+@StackTrace(false)
+public class TaskExecutionEvent extends Event {
+
+    public static final String NAME = "joshua.java.concurrency.TaskExecution";
+
+    @Label("Executor")
+    private String executor;
+
+    @Label("Task Class")
+    private Class<?> taskClass;
+
+    @Label("Queue Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    private long queueWait;
+
+    @Label("Run Time")
+    @Timespan(Timespan.NANOSECONDS)
+    private long runTime;
+
+    public void setExecutor(String executor) {
+        this.executor = executor;
+    }
+
+    public void setTaskClass(Class<?> taskClass) {
+        this.taskClass = taskClass;
+    }
+
+    public void setQueueWait(long queueWait) {
+        this.queueWait = queueWait;
+    }
+
+    public void setRunTime(long runTime) {
+        this.runTime = runTime;
+    }
+}
@@ -0,0 +1,84 @@
+package joshua.java.concurrency.load;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds, with log-linear buckets in the manner of HdrHistogram: values
+ * below 256 are counted exactly, larger ones in 128 buckets per power of two, so any percentile is reported within
+ * 1/128(~0.8%) of the recorded value, from 0 to Long.MAX_VALUE, in 57 KB.
+ */
+@ThreadSafe
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 8;
+
+    private static final int HALF = 1 << (SUB_BITS - 1);
+
+    /*exact buckets below 2^SUB_BITS, then HALF buckets for each highest bit from SUB_BITS to 62.*/
+    private static final int BUCKETS = (65 - SUB_BITS) * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param nanos negative values are counted as 0.
+     */
+    public void record(long nanos) {
+        long v = Math.max(0, nanos);
+        counts.incrementAndGet(index(v));
+        count.incrementAndGet();
+        long m;
+        while (v > (m = max.get()) && !max.compareAndSet(m, v)) ;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile in [0, 100]
+     * @return the highest value of the bucket holding the given percentile, capped at the maximum, 0 if empty.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("percentile: " + percentile);
+        long total = count.get();
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(highestValue(i), max.get());
+        }
+        return max.get();/*records added while scanning*/
+    }
+
+    static int index(long v) {
+        if (v < 1L << SUB_BITS)
+            return (int) v;
+        int shift = 64 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        /*the SUB_BITS top bits of v, in [HALF, 2 * HALF).*/
+        int m = (int) (v >>> shift);
+        return (shift + 1) * HALF + m - HALF;
+    }
+
+    static long highestValue(int index) {
+        if (index < 2 * HALF)
+            return index;
+        int shift = index / HALF - 1;
+        long m = index % HALF + HALF;
+        return ((m + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,215 @@
+package joshua.java.concurrency.load;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs workloads side by side, each at a fixed arrival rate, and reports their throughput and latency percentiles.
+ * <p/>
+ * Open model: every thread of a workload follows its own schedule of intended start times, rate / threads apart and
+ * staggered across threads. An operation's latency is measured from its intended start rather than from when it
+ * actually started, which corrects for coordinated omission: when the component stalls, the operations which should
+ * have been issued meanwhile are issued late and their latency includes the wait, instead of a closed loop politely
+ * not issuing them. The service time, from the actual start, is reported too; a gap between the two means the threads
+ * can't keep up with the rate, either because the component is saturated or because there are too few threads.
+ * <p/>
+ * Operations intended to start during the warmup are run but not recorded.
+ */
+public class LoadGenerator {
+
+    private final long warmupNanos;
+
+    private final long durationNanos;
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    private final long seed;
+
+    /**
+     * @param warmup   time before recording starts
+     * @param duration time recorded, after the warmup
+     */
+    public LoadGenerator(long warmup, long duration, TimeUnit unit, long seed) {
+        if (warmup < 0 || duration <= 0)
+            throw new IllegalArgumentException();
+        this.warmupNanos = unit.toNanos(warmup);
+        this.durationNanos = unit.toNanos(duration);
+        this.seed = seed;
+    }
+
+    /**
+     * @param rate    operations per second
+     * @param threads threads issuing the operations, enough to cover the rate times the latency
+     */
+    public void add(Workload workload, double rate, int threads) {
+        if (rate <= 0 || threads < 1)
+            throw new IllegalArgumentException();
+        entries.add(new Entry(workload, rate, threads));
+    }
+
+    /**
+     * run every workload until the end of the duration, then close them.
+     */
+    public void run() throws InterruptedException {
+        List<Thread> threads = new ArrayList<Thread>();
+        final CountDownLatch ready = new CountDownLatch(1);
+        /*a common start, once every thread is created.*/
+        final long[] start = new long[1];
+        int n = 0;
+        for (final Entry e : entries) {
+            for (int t = 0; t < e.threads; t++) {
+                final long offset = (long) (t * 1e9 / e.rate);
+                final Random rnd = new Random(seed + n++);
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            ready.await();
+                            drive(e, start[0], offset, rnd);
+                        } catch (InterruptedException ex) {
+                            /*stop issuing.*/
+                        }
+                    }
+                }, e.workload.getName() + "-" + t);
+                thread.setDaemon(true);
+                threads.add(thread);
+                thread.start();
+            }
+        }
+        start[0] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+        ready.countDown();
+        try {
+            for (Thread t : threads)
+                t.join();
+        } finally {
+            for (Thread t : threads)
+                t.interrupt();
+            for (Entry e : entries)
+                e.workload.close();
+        }
+    }
+
+    /**
+     * issue operations of a workload from one thread, at start + offset + k * interval.
+     */
+    private void drive(Entry e, long start, long offset, Random rnd) throws InterruptedException {
+        long interval = (long) (e.threads * 1e9 / e.rate);
+        long measureStart = start + warmupNanos;
+        long end = measureStart + durationNanos;
+        for (long intended = start + offset; intended - end < 0; intended += interval) {
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+            }
+            long begin = System.nanoTime();
+            int op;
+            try {
+                op = e.workload.execute(rnd);
+            } catch (InterruptedException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                if (intended - measureStart >= 0)
+                    e.errors.incrementAndGet();
+                continue;
+            }
+            long done = System.nanoTime();
+            if (intended - measureStart >= 0) {
+                e.latency[op].record(done - intended);
+                e.service[op].record(done - begin);
+            }
+        }
+    }
+
+    /**
+     * @return latencies of an operation, from intended start to completion, null if there is no such operation.
+     */
+    public LatencyHistogram getLatency(String workload, String operation) {
+        Entry e = find(workload);
+        int op = e == null ? -1 : e.indexOf(operation);
+        return op < 0 ? null : e.latency[op];
+    }
+
+    /**
+     * @return service times of an operation, from actual start to completion, null if there is no such operation.
+     */
+    public LatencyHistogram getServiceTime(String workload, String operation) {
+        Entry e = find(workload);
+        int op = e == null ? -1 : e.indexOf(operation);
+        return op < 0 ? null : e.service[op];
+    }
+
+    /**
+     * print a table of throughput and percentiles, in microseconds, per workload and operation.
+     */
+    public void printReport(PrintStream out) {
+        double seconds = durationNanos / 1e9;
+        out.printf("%-10s %-10s %10s %10s %10s %10s %10s %10s %12s%n",
+                "workload", "operation", "count", "ops/s", "p50(us)", "p99(us)", "p99.9(us)", "max(us)", "svc p99(us)");
+        for (Entry e : entries) {
+            long total = 0;
+            String[] ops = e.workload.getOperations();
+            for (int i = 0; i < ops.length; i++) {
+                LatencyHistogram h = e.latency[i];
+                total += h.getCount();
+                out.printf("%-10s %-10s %10d %10.1f %10.1f %10.1f %10.1f %10.1f %12.1f%n",
+                        e.workload.getName(), ops[i], h.getCount(), h.getCount() / seconds,
+                        micros(h.getValueAtPercentile(50)), micros(h.getValueAtPercentile(99)),
+                        micros(h.getValueAtPercentile(99.9)), micros(h.getMax()),
+                        micros(e.service[i].getValueAtPercentile(99)));
+            }
+            out.printf("%-10s target %.1f ops/s, achieved %.1f ops/s, %d errors%n",
+                    e.workload.getName(), e.rate, total / seconds, e.errors.get());
+        }
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1e3;
+    }
+
+    private Entry find(String workload) {
+        for (Entry e : entries) {
+            if (e.workload.getName().equals(workload))
+                return e;
+        }
+        return null;
+    }
+
+    private static final class Entry {
+        private final Workload workload;
+        private final double rate;
+        private final int threads;
+        private final LatencyHistogram[] latency;
+        private final LatencyHistogram[] service;
+        private final AtomicLong errors = new AtomicLong();
+
+        Entry(Workload workload, double rate, int threads) {
+            this.workload = workload;
+            this.rate = rate;
+            this.threads = threads;
+            int n = workload.getOperations().length;
+            latency = new LatencyHistogram[n];
+            service = new LatencyHistogram[n];
+            for (int i = 0; i < n; i++) {
+                latency[i] = new LatencyHistogram();
+                service[i] = new LatencyHistogram();
+            }
+        }
+
+        int indexOf(String operation) {
+            String[] ops = workload.getOperations();
+            for (int i = 0; i < ops.length; i++) {
+                if (ops[i].equals(operation))
+                    return i;
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package joshua.java.concurrency.load;
+
+import joshua.java.concurrency.chap5.Computable;
+import joshua.java.concurrency.chap5.Memorizer;
+
+import java.util.Random;
+
+/**
+ * Lookups of Zipfian keys in a Memorizer, each miss costing a fixed amount of cpu. Hits and misses are reported
+ * separately: a "hit" includes waiting for another thread's load of the same key.
+ */
+public class MemorizerWorkload extends Workload {
+
+    private static final int HIT = 0;
+    private static final int MISS = 1;
+
+    private final ZipfianGenerator keys;
+
+    private final Memorizer<Integer, Long> memorizer;
+
+    /*set by the computation, which Memorizer runs on the thread which missed.*/
+    private final ThreadLocal<boolean[]> loaded = new ThreadLocal<boolean[]>() {
+        @Override
+        protected boolean[] initialValue() {
+            return new boolean[1];
+        }
+    };
+
+    /**
+     * @param computeNanos cpu time spent computing a missing value
+     */
+    public MemorizerWorkload(int keySpace, double exponent, final long computeNanos) {
+        super("memorizer", "hit", "miss");
+        keys = new ZipfianGenerator(keySpace, exponent);
+        memorizer = new Memorizer<Integer, Long>(new Computable<Integer, Long>() {
+            @Override
+            public Long compute(Integer arg) {
+                loaded.get()[0] = true;
+                long start = System.nanoTime();
+                long x = arg;
+                while (System.nanoTime() - start < computeNanos)
+                    x = x * 6364136223846793005L + 1442695040888963407L;
+                return x;
+            }
+        });
+    }
+
+    @Override
+    public int execute(Random rnd) throws InterruptedException {
+        boolean[] miss = loaded.get();
+        miss[0] = false;
+        memorizer.compute(keys.next(rnd));
+        return miss[0] ? MISS : HIT;
+    }
+}
@@ -0,0 +1,52 @@
+package joshua.java.concurrency.load;
+
+import joshua.java.concurrency.chap7.TimedRun;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tasks run through a TimedRun, sleeping for an exponentially distributed time, so a share of them outlives the
+ * timeout and is cancelled. Completed and timed out runs are reported separately.
+ */
+public class TimedRunWorkload extends Workload {
+
+    private static final int COMPLETED = 0;
+    private static final int TIMED_OUT = 1;
+
+    private final TimedRun timedRun;
+
+    private final long meanTaskNanos;
+
+    private final long timeoutNanos;
+
+    /**
+     * @param solution which TimedRun, see TimedRun.newInstance()
+     */
+    public TimedRunWorkload(int solution, long meanTaskTime, long timeout, TimeUnit unit) {
+        super("timedrun", "completed", "timed out");
+        this.timedRun = TimedRun.newInstance(solution);
+        this.meanTaskNanos = unit.toNanos(meanTaskTime);
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    @Override
+    public int execute(Random rnd) throws InterruptedException {
+        final long sleepNanos = (long) (-Math.log(1 - rnd.nextDouble()) * meanTaskNanos);
+        final AtomicBoolean completed = new AtomicBoolean();
+        timedRun.timeRun(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                    completed.set(true);
+                } catch (InterruptedException e) {
+                    /*cancelled at the timeout.*/
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, timeoutNanos, TimeUnit.NANOSECONDS);
+        return completed.get() ? COMPLETED : TIMED_OUT;
+    }
+}
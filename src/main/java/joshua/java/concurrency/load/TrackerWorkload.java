@@ -0,0 +1,52 @@
+package joshua.java.concurrency.load;
+
+import joshua.java.concurrency.chap4.MonitorVehicleTracker;
+import joshua.java.concurrency.chap4.MutablePoint;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Vehicles reporting their positions to a MonitorVehicleTracker, and readers taking snapshots of the whole fleet
+ * while holding the tracker's lock, which is what stalls the updates.
+ */
+public class TrackerWorkload extends Workload {
+
+    private static final int UPDATE = 0;
+    private static final int SNAPSHOT = 1;
+
+    private final MonitorVehicleTracker tracker;
+
+    private final String[] ids;
+
+    private final double snapshotPercent;
+
+    /**
+     * @param snapshotPercent share of the operations which are snapshots, the others are updates
+     */
+    public TrackerWorkload(int vehicles, double snapshotPercent) {
+        super("tracker", "update", "snapshot");
+        if (vehicles < 1 || snapshotPercent < 0 || snapshotPercent > 100)
+            throw new IllegalArgumentException();
+        Map<String, MutablePoint> locations = new HashMap<String, MutablePoint>();
+        ids = new String[vehicles];
+        for (int i = 0; i < vehicles; i++) {
+            ids[i] = "vehicle-" + i;
+            locations.put(ids[i], new MutablePoint());
+        }
+        tracker = new MonitorVehicleTracker(locations);
+        this.snapshotPercent = snapshotPercent;
+    }
+
+    @Override
+    public int execute(Random rnd) {
+        if (rnd.nextDouble() * 100 < snapshotPercent) {
+            if (tracker.getLocations().size() != ids.length)
+                throw new IllegalStateException("Lost vehicles");
+            return SNAPSHOT;
+        }
+        tracker.setLocation(ids[rnd.nextInt(ids.length)], rnd.nextInt(), rnd.nextInt());
+        return UPDATE;
+    }
+}
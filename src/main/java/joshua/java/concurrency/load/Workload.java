@@ -0,0 +1,44 @@
+package joshua.java.concurrency.load;
+
+import java.util.Random;
+
+/**
+ * A mix of operations against one component, run by LoadGenerator at a fixed rate from several threads.
+ * Implementations must be thread-safe.
+ */
+public abstract class Workload {
+
+    private final String name;
+
+    private final String[] operations;
+
+    /**
+     * @param operations names of the operations execute() may run, latencies are reported per operation.
+     */
+    protected Workload(String name, String... operations) {
+        this.name = name;
+        this.operations = operations.clone();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String[] getOperations() {
+        return operations.clone();
+    }
+
+    /**
+     * run one operation, chosen by the workload.
+     *
+     * @param rnd random source of the calling thread
+     * @return index of the operation run in getOperations()
+     */
+    public abstract int execute(Random rnd) throws Exception;
+
+    /**
+     * release the workload's resources once the run is over.
+     */
+    public void close() {
+    }
+}
@@ -0,0 +1,35 @@
+package joshua.java.concurrency.load;
+
+import net.jcip.annotations.Immutable;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Keys in [0, n) where key k is drawn with probability proportional to 1 / (k + 1)^exponent, so a few keys are hot,
+ * as in a real cache. Draws by binary search over the precomputed cumulative distribution, 8 bytes per key.
+ */
+@Immutable
+public class ZipfianGenerator {
+
+    private final double[] cdf;
+
+    /**
+     * @param exponent 0 for uniform keys, 0.99 for the skew used by YCSB
+     */
+    public ZipfianGenerator(int n, double exponent) {
+        if (n < 1 || exponent < 0)
+            throw new IllegalArgumentException();
+        cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++)
+            cdf[i] = sum += 1 / Math.pow(i + 1, exponent);
+        for (int i = 0; i < n; i++)
+            cdf[i] /= sum;
+    }
+
+    public int next(Random rnd) {
+        int i = Arrays.binarySearch(cdf, rnd.nextDouble());
+        return Math.min(i < 0 ? -i - 1 : i, cdf.length - 1);
+    }
+}
@@ -0,0 +1,178 @@
+package joshua.java.concurrency.chap7;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit test for CrawlFrontier, and for WebCrawler's politeness against a stand-in processpage() simulating host latency.
+ */
+public class CrawlFrontierTest extends TestCase {
+
+    private static final int HOSTS = 10;
+
+    private static final long HOST_DELAY_MS = 20;
+
+    public void testPriorityOrder() throws Exception {
+        CrawlFrontier frontier = new CrawlFrontier(10, 0, TimeUnit.MILLISECONDS, 0);
+        frontier.add(url("a", 1), 0.1);
+        frontier.add(url("a", 2), 0.9);
+        frontier.add(url("b", 1), 0.5);
+
+        URL first = frontier.take();
+        assertEquals(url("a", 2), first);
+        /*host a is busy until done(), so b comes next even though a has URLs left.*/
+        assertEquals(url("b", 1), frontier.take());
+        frontier.done(first, 0);
+        assertEquals(url("a", 1), frontier.take());
+        assertEquals(0, frontier.size());
+    }
+
+    public void testHostRestsAfterFetch() throws Exception {
+        CrawlFrontier frontier = new CrawlFrontier(10, 50, TimeUnit.MILLISECONDS, 0);
+        frontier.add(url("a", 1), 1);
+        frontier.add(url("a", 2), 1);
+        URL u = frontier.take();
+        frontier.done(u, 0);
+        long start = System.nanoTime();
+        frontier.take();
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(45));
+    }
+
+    public void testOfferBlocksWhenFull() throws Exception {
+        CrawlFrontier frontier = new CrawlFrontier(2, 0, TimeUnit.MILLISECONDS, 0);
+        assertTrue(frontier.offer(url("a", 1), 1, 0, TimeUnit.MILLISECONDS));
+        assertTrue(frontier.offer(url("b", 1), 1, 0, TimeUnit.MILLISECONDS));
+        assertFalse(frontier.offer(url("c", 1), 1, 10, TimeUnit.MILLISECONDS));
+        frontier.take();
+        assertTrue(frontier.offer(url("c", 1), 1, 0, TimeUnit.MILLISECONDS));
+        assertEquals(2, frontier.drain().size());
+        assertEquals(0, frontier.size());
+    }
+
+    public void testSpillsToDiskAndReloads() throws Exception {
+        File dir = File.createTempFile("frontier", "");
+        assertTrue(dir.delete());
+        try {
+            /*small segments, so the spilled URLs span several files.*/
+            CrawlFrontier frontier = new CrawlFrontier(2, 0, TimeUnit.MILLISECONDS, 0, new MappedSegmentQueue(dir, 256));
+            for (int i = 0; i < 20; i++)
+                assertTrue(frontier.offer(url("h" + i, i), i, 0, TimeUnit.MILLISECONDS));
+            assertEquals(2, frontier.size());
+            assertEquals(2, frontier.drain().size());
+            frontier.force();
+            assertTrue(dir.list().length > 1);
+
+            /*a restart: the spilled URLs come back from the segments, in order.*/
+            frontier = new CrawlFrontier(100, 0, TimeUnit.MILLISECONDS, 0, new MappedSegmentQueue(dir, 256));
+            Set<URL> taken = new HashSet<URL>();
+            for (int i = 2; i < 20; i++)
+                taken.add(frontier.take());
+            assertEquals(18, taken.size());
+            assertTrue(taken.contains(url("h2", 2)));
+            assertTrue(taken.contains(url("h19", 19)));
+            assertEquals(0, frontier.size());
+            /*read back, but kept on disk until the reads are committed.*/
+            assertTrue(dir.list().length > 1);
+            frontier.commitReloads(null);
+            /*consumed segments are reclaimed, the last one is kept for appending.*/
+            assertEquals(1, dir.list().length);
+        } finally {
+            for (File f : dir.listFiles())
+                f.delete();
+            dir.delete();
+        }
+    }
+
+    /**
+     * crawl a synthetic web of HOSTS hosts, checking no host is fetched concurrently or before it has rested.
+     */
+    public void testCrawlerIsPolite() throws Exception {
+        final ConcurrentMap<String, long[]> lastFetch = new ConcurrentHashMap<String, long[]>();
+        final AtomicInteger violations = new AtomicInteger();
+        final AtomicInteger pages = new AtomicInteger();
+
+        /*large enough that no link is dropped, back-pressure is covered by testOfferBlocksWhenFull.*/
+        CrawlFrontier frontier = new CrawlFrontier(100000, HOST_DELAY_MS, TimeUnit.MILLISECONDS, 1);
+        WebCrawler crawler = new WebCrawler(url("host0", 0), null, new ConcurrentLongHashSet(1 << 20), frontier) {
+            @Override
+            protected List<URL> processpage(URL url) {
+                String host = url.getHost();
+                long start = System.nanoTime();
+                long[] previous = lastFetch.put(host, new long[]{start, Long.MAX_VALUE});
+                if (previous != null && start - previous[1] < TimeUnit.MILLISECONDS.toNanos(HOST_DELAY_MS))
+                    violations.incrementAndGet();
+                int h = Integer.parseInt(host.substring(4, host.indexOf('.')));
+                try {
+                    Thread.sleep(2 + h);/*host latency*/
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                lastFetch.put(host, new long[]{start, System.nanoTime()});
+                pages.incrementAndGet();
+                Random random = new Random(url.hashCode());
+                List<URL> links = new ArrayList<URL>();
+                for (int i = 0; i < 5; i++)
+                    links.add(url("host" + random.nextInt(HOSTS), random.nextInt(1 << 20)));
+                return links;
+            }
+        };
+        long start = System.nanoTime();
+        crawler.start();
+        Thread.sleep(1500);
+        /*the rate is measured up to stop(), which waits for the fetches in progress.*/
+        int crawled = pages.get();
+        double crawling = (System.nanoTime() - start) / 1e9;
+        crawler.stop();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("CrawlFrontierTest: %d pages in %.2fs, %.1f pages/s over %d hosts, %d ms host delay%n",
+                crawled, crawling, crawled / crawling, HOSTS, HOST_DELAY_MS);
+        assertEquals(0, violations.get());
+        assertTrue(pages.get() > HOSTS);
+        /*each host is fetched at most once per HOST_DELAY_MS.*/
+        assertTrue(pages.get() <= HOSTS * (1 + seconds * 1000 / HOST_DELAY_MS));
+    }
+
+    /**
+     * pages with many links and a tiny frontier: most CrawlTasks block queueing their links, yet the crawler's threads
+     * stay bounded.
+     */
+    public void testBlockedSubmittersDoNotGrowThreads() throws Exception {
+        final Set<Thread> workers = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        final AtomicInteger next = new AtomicInteger();
+        CrawlFrontier frontier = new CrawlFrontier(4, 0, TimeUnit.MILLISECONDS, 0);
+        WebCrawler crawler = new WebCrawler(url("host0", 0), null, new ConcurrentLongHashSet(1 << 20), frontier) {
+            @Override
+            protected List<URL> processpage(URL url) {
+                workers.add(Thread.currentThread());
+                List<URL> links = new ArrayList<URL>();
+                for (int i = 0; i < 20; i++) {
+                    int page = next.incrementAndGet();
+                    links.add(url("host" + page % HOSTS, page));
+                }
+                return links;
+            }
+        };
+        crawler.start();
+        Thread.sleep(1500);
+        crawler.stop();
+        assertTrue(workers.size() > 1);
+        assertTrue(workers.size() + " threads", workers.size() <= WebCrawler.MAX_CRAWL_THREADS);
+    }
+
+    private static URL url(String host, int page) {
+        try {
+            return new URL("http://" + host + ".test/p/" + page);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package joshua.java.concurrency.chap7;
+
+import junit.framework.TestCase;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Unit test for the FingerprintSet implementations and UrlFingerprint.
+ */
+public class FingerprintSetTest extends TestCase {
+
+    private static final int N = 100000;
+
+    public void testUrlFingerprintIgnoresHostCaseAndFragment() throws Exception {
+        long f = UrlFingerprint.of(new URL("http://Example.com/a?b=1"));
+        assertEquals(f, UrlFingerprint.of(new URL("HTTP://example.COM:80/a?b=1#top")));
+        assertFalse(f == UrlFingerprint.of(new URL("http://example.com/a?b=2")));
+        assertFalse(f == UrlFingerprint.of(new URL("https://example.com/a?b=1")));
+    }
+
+    public void testExactSet() throws Exception {
+        assertEquals(0, checkAddRemove(new ConcurrentLongHashSet(N)));
+        assertEquals(N / 2, checkConcurrentAdds(new ConcurrentLongHashSet(N)));
+    }
+
+    public void testCuckooFilter() throws Exception {
+        /*a few adds may be rejected as false positives, but never more than once per fingerprint.*/
+        assertTrue(checkAddRemove(new ConcurrentCuckooFilter(N)) < N / 1000);
+        int added = checkConcurrentAdds(new ConcurrentCuckooFilter(N));
+        assertTrue(added <= N / 2 && added > N / 2 - N / 1000);
+
+        ConcurrentCuckooFilter filter = new ConcurrentCuckooFilter(N);
+        Random random = new Random(42);
+        for (int i = 0; i < N; i++)
+            filter.add(random.nextLong());
+        int falsePositives = 0;
+        for (int i = 0; i < N; i++) {
+            if (filter.contains(random.nextLong()))
+                falsePositives++;
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < N / 1000);
+    }
+
+    /**
+     * threads race to add the same fingerprints into an almost full filter, while another removes and re-adds resident
+     * entries so that slots free up and entries move between buckets: each fingerprint is still added at most once.
+     */
+    public void testCuckooFilterConcurrentAddsWhileEntriesMove() throws Exception {
+        /*2048 buckets, 8192 slots.*/
+        final ConcurrentCuckooFilter filter = new ConcurrentCuckooFilter(7372);
+        Random random = new Random(3);
+        final List<Long> residents = new ArrayList<Long>();
+        while (residents.size() < 6800) {
+            long fp = random.nextLong();
+            if (filter.add(fp))
+                residents.add(fp);
+        }
+        final long[] fresh = new long[300];
+        for (int i = 0; i < fresh.length; i++)
+            fresh[i] = random.nextLong();
+        final int adders = 4;
+        final AtomicIntegerArray added = new AtomicIntegerArray(fresh.length);
+        final CountDownLatch done = new CountDownLatch(adders);
+        final CyclicBarrier barrier = new CyclicBarrier(adders + 1);
+        ExecutorService exec = Executors.newFixedThreadPool(adders + 1);
+        try {
+            Future<?> churn = exec.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    barrier.await();
+                    for (int i = 0; done.getCount() > 0; i = (i + 1) % residents.size()) {
+                        long fp = residents.get(i);
+                        assertTrue(filter.remove(fp));
+                        assertTrue(filter.add(fp));
+                    }
+                    return null;
+                }
+            });
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < adders; t++) {
+                futures.add(exec.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        try {
+                            barrier.await();
+                            for (int i = 0; i < fresh.length; i++) {
+                                if (filter.add(fresh[i]))
+                                    added.incrementAndGet(i);
+                            }
+                        } finally {
+                            done.countDown();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> f : futures)
+                f.get(30, TimeUnit.SECONDS);
+            churn.get(30, TimeUnit.SECONDS);
+        } finally {
+            exec.shutdownNow();
+        }
+        for (int i = 0; i < fresh.length; i++) {
+            assertTrue("added " + added.get(i) + " times", added.get(i) <= 1);
+            assertTrue(filter.contains(fresh[i]));
+        }
+    }
+
+    public void testExactSetFull() {
+        ConcurrentLongHashSet set = new ConcurrentLongHashSet(10);
+        for (int i = 0; i < 10; i++)
+            assertTrue(set.add(i * 7919L + 3));
+        try {
+            set.add(-5);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    public void testCuckooFilterFull() {
+        ConcurrentCuckooFilter filter = new ConcurrentCuckooFilter(100);
+        Random random = new Random(5);
+        int added = 0;
+        try {
+            while (added < 1000) {
+                if (filter.add(random.nextLong()))
+                    added++;
+            }
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        /*the filter holds at least what it was sized for.*/
+        assertTrue(added >= 100);
+    }
+
+    /**
+     * @return number of fresh fingerprints rejected as already present.
+     */
+    private int checkAddRemove(FingerprintSet set) {
+        Random random = new Random(1);
+        long[] fps = new long[N / 2];
+        boolean[] added = new boolean[fps.length];
+        int rejected = 0;
+        for (int i = 0; i < fps.length; i++) {
+            fps[i] = random.nextLong();
+            added[i] = set.add(fps[i]);
+            if (!added[i])
+                rejected++;
+        }
+        for (long fp : fps) {
+            assertTrue(set.contains(fp));
+            assertFalse(set.add(fp));
+        }
+        /*only remove what was added, removing a false positive would drop another entry.*/
+        for (int i = 0; i < fps.length; i += 2) {
+            if (added[i])
+                assertTrue(set.remove(fps[i]));
+        }
+        for (int i = 1; i < fps.length; i += 2)
+            assertTrue(set.contains(fps[i]));
+        return rejected;
+    }
+
+    /**
+     * several threads add the same fingerprints, each must be reported added at most once.
+     *
+     * @return number of fingerprints reported added.
+     */
+    private int checkConcurrentAdds(final FingerprintSet set) throws Exception {
+        final int threads = 4;
+        final AtomicInteger added = new AtomicInteger();
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        ExecutorService exec = Executors.newFixedThreadPool(threads);
+        try {
+            for (int t = 0; t < threads; t++) {
+                exec.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        barrier.await();
+                        Random random = new Random(7);
+                        for (int i = 0; i < N / 2; i++) {
+                            if (set.add(random.nextLong()))
+                                added.incrementAndGet();
+                        }
+                        return null;
+                    }
+                });
+            }
+        } finally {
+            exec.shutdown();
+        }
+        assertTrue(exec.awaitTermination(30, TimeUnit.SECONDS));
+        return added.get();
+    }
+}
@@ -0,0 +1,191 @@
+package joshua.java.concurrency.chap7;
+
+import joshua.java.concurrency.chap4.MonitorVehicleTracker;
+import joshua.java.concurrency.chap4.MutablePoint;
+import joshua.java.concurrency.chap5.Computable;
+import joshua.java.concurrency.chap5.Memorizer;
+import joshua.java.concurrency.jfr.CancellationEvent;
+import joshua.java.concurrency.jfr.MemorizerLoadEvent;
+import joshua.java.concurrency.jfr.SnapshotLockEvent;
+import joshua.java.concurrency.jfr.TaskExecutionEvent;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Unit test for the JFR events: recorded when enabled, and tasks left unwrapped when not.
+ */
+public class JfrEventsTest extends TestCase {
+
+    public void testEventsRecorded() throws Exception {
+        Recording recording = new Recording();
+        recording.enable(MemorizerLoadEvent.class).withThreshold(Duration.ZERO);
+        recording.enable(TaskExecutionEvent.class).withThreshold(Duration.ZERO);
+        recording.enable(SnapshotLockEvent.class).withThreshold(Duration.ZERO);
+        recording.enable(CancellationEvent.class);
+        recording.start();
+
+        Memorizer<Integer, Integer> memorizer = new Memorizer<Integer, Integer>(new Computable<Integer, Integer>() {
+            @Override
+            public Integer compute(Integer arg) {
+                return arg * arg;
+            }
+        });
+        for (int i = 0; i < 10; i++)
+            memorizer.compute(i % 3);/*3 misses*/
+
+        ThreadPoolExecutor exec = newCancellingExecutor();
+        final CountDownLatch done = new CountDownLatch(5);
+        for (int i = 0; i < 5; i++) {
+            exec.execute(new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        exec.shutdown();
+        assertTrue(exec.awaitTermination(10, TimeUnit.SECONDS));
+
+        Map<String, MutablePoint> locations = new HashMap<String, MutablePoint>();
+        locations.put("a", new MutablePoint());
+        new MonitorVehicleTracker(locations).getLocations();
+
+        Thread.currentThread().interrupt();
+        new NoncancelableTask().getNextTasks(new LinkedBlockingQueue<NoncancelableTask.Task>(),
+                new ArrayList<NoncancelableTask.Task>(), 1, 1, TimeUnit.MILLISECONDS);
+        assertTrue(Thread.interrupted());
+
+        recording.stop();
+        Map<String, List<RecordedEvent>> events = read(recording);
+        assertEquals(3, events.get(MemorizerLoadEvent.NAME).size());
+        assertEquals(5, events.get(TaskExecutionEvent.NAME).size());
+        RecordedEvent task = events.get(TaskExecutionEvent.NAME).get(0);
+        assertTrue(task.getDuration("queueWait").compareTo(task.getDuration()) <= 0);
+        assertEquals(1, events.get(SnapshotLockEvent.NAME).size());
+        assertEquals(1, events.get(SnapshotLockEvent.NAME).get(0).getInt("vehicles"));
+        RecordedEvent restored = events.get(CancellationEvent.NAME).get(0);
+        assertEquals(CancellationEvent.INTERRUPT_RESTORED, restored.getString("action"));
+        assertEquals(1, restored.getInt("interrupts"));
+    }
+
+    public void testShutdownNowReturnsCallerTasksWhileRecording() throws Exception {
+        Recording recording = new Recording();
+        recording.enable(TaskExecutionEvent.class);
+        recording.start();
+        try {
+            ThreadPoolExecutor exec = newCancellingExecutor();
+            final CountDownLatch release = new CountDownLatch(1);
+            exec.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            Runnable queued = new Runnable() {
+                @Override
+                public void run() {
+                }
+            };
+            exec.execute(queued);
+            assertEquals(Collections.singletonList(queued), exec.shutdownNow());
+            assertTrue(exec.awaitTermination(10, TimeUnit.SECONDS));
+        } finally {
+            recording.close();
+        }
+    }
+
+    /**
+     * queued tasks are the caller's own while recording, so they can be found and removed.
+     */
+    public void testQueueInspectionWhileRecording() throws Exception {
+        Recording recording = new Recording();
+        recording.enable(TaskExecutionEvent.class).withThreshold(Duration.ZERO);
+        recording.start();
+        ThreadPoolExecutor exec = newCancellingExecutor();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch ran = new CountDownLatch(1);
+        try {
+            exec.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            Runnable queued = new Runnable() {
+                @Override
+                public void run() {
+                    fail("removed before it ran");
+                }
+            };
+            exec.execute(queued);
+            assertTrue(exec.getQueue().contains(queued));
+            assertTrue(exec.remove(queued));
+
+            Future<?> cancelled = exec.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            assertTrue(exec.getQueue().contains(cancelled));
+            cancelled.cancel(false);
+            exec.purge();
+            assertTrue(exec.getQueue().isEmpty());
+
+            exec.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ran.countDown();
+                }
+            });
+            release.countDown();
+            assertTrue(ran.await(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            exec.shutdown();
+        }
+        assertTrue(exec.awaitTermination(10, TimeUnit.SECONDS));
+        recording.stop();
+        /*the blocking task and the last one ran, the removed ones left nothing behind.*/
+        assertEquals(2, read(recording).get(TaskExecutionEvent.NAME).size());
+    }
+
+    private static ThreadPoolExecutor newCancellingExecutor() {
+        return new NonStandardCancellation().new CancellingExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+    }
+
+    private static Map<String, List<RecordedEvent>> read(Recording recording) throws IOException {
+        File file = File.createTempFile("events", ".jfr");
+        try {
+            recording.dump(file.toPath());
+            recording.close();
+            Map<String, List<RecordedEvent>> events = new HashMap<String, List<RecordedEvent>>();
+            for (RecordedEvent e : RecordingFile.readAllEvents(file.toPath())) {
+                String name = e.getEventType().getName();
+                if (!events.containsKey(name))
+                    events.put(name, new ArrayList<RecordedEvent>());
+                events.get(name).add(e);
+            }
+            return events;
+        } finally {
+            file.delete();
+        }
+    }
+}
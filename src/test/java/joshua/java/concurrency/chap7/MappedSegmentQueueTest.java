@@ -0,0 +1,94 @@
+package joshua.java.concurrency.chap7;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.URL;
+
+/**
+ * Unit test for MappedSegmentQueue's persistence across restarts.
+ */
+public class MappedSegmentQueueTest extends TestCase {
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("segments", "");
+        assertTrue(dir.delete());
+    }
+
+    @Override
+    protected void tearDown() {
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    public void testUncommittedReadsComeBack() throws Exception {
+        MappedSegmentQueue queue = new MappedSegmentQueue(dir, 256);
+        for (int i = 0; i < 10; i++)
+            queue.add(url(i), i);
+        queue.force();
+        for (int i = 0; i < 4; i++)
+            assertEquals(url(i), queue.poll());
+        queue.commitReads();
+        for (int i = 4; i < 8; i++)
+            assertEquals(url(i), queue.poll());
+
+        /*a crash: the reads after the commit are replayed.*/
+        queue = new MappedSegmentQueue(dir, 256);
+        for (int i = 4; i < 10; i++)
+            assertEquals(url(i), queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    public void testTornRecordEndsSegment() throws Exception {
+        MappedSegmentQueue queue = new MappedSegmentQueue(dir, 4096);
+        for (int i = 0; i < 3; i++)
+            queue.add(url(i), i);
+        queue.force();
+        /*a crash in the middle of writing the last URL: its header made it to disk, its bytes didn't.*/
+        File segment = dir.listFiles()[0];
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        try {
+            raf.seek(raf.length() - 4096 + 12);
+            int first = raf.readInt();
+            long last = 12 + 2L * (16 + first);
+            raf.seek(last + 16);
+            raf.write(new byte[first]);
+        } finally {
+            raf.close();
+        }
+
+        queue = new MappedSegmentQueue(dir, 4096);
+        assertEquals(url(0), queue.poll());
+        assertEquals(url(1), queue.poll());
+        assertTrue(queue.isEmpty());
+        /*appends go on over the torn record.*/
+        queue.add(url(3), 3);
+        assertFalse(queue.isEmpty());
+        assertEquals(url(3), queue.poll());
+    }
+
+    public void testReopenKeepsSegmentSize() throws Exception {
+        MappedSegmentQueue queue = new MappedSegmentQueue(dir, 4096);
+        for (int i = 0; i < 10; i++)
+            queue.add(url(i), i);
+        queue.force();
+
+        /*reopened with smaller segments: the existing one is still read, and filled, to its own size.*/
+        queue = new MappedSegmentQueue(dir, 256);
+        for (int i = 10; i < 20; i++)
+            queue.add(url(i), i);
+        assertEquals(1, dir.list().length);
+        for (int i = 0; i < 20; i++)
+            assertEquals(url(i), queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    private static URL url(int i) throws Exception {
+        return new URL("http://host" + i + ".example.com/page" + i);
+    }
+}
@@ -0,0 +1,74 @@
+package joshua.java.concurrency.chap7;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Consumer throughput of NoncancelableTask.getNextTask() against the batch getNextTasks(), with producers keeping a
+ * bounded queue busy.
+ * <p/>
+ * Not a unit test, run it with: java -cp target/classes:target/test-classes joshua.java.concurrency.chap7.NoncancelableTaskBenchmark [producers]
+ */
+public class NoncancelableTaskBenchmark {
+
+    private static final int TASKS = 5000000;
+
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private static final int BATCH = 64;
+
+    private static final int ROUNDS = 5;
+
+    private static final NoncancelableTask.Task TASK = new NoncancelableTask.Task() {
+    };
+
+    public static void main(String[] args) throws Exception {
+        int producers = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        System.out.printf("producers=%d, tasks=%d, queue capacity=%d, batch=%d%n", producers, TASKS, QUEUE_CAPACITY, BATCH);
+        for (int round = 0; round < ROUNDS; round++) {
+            report("getNextTask", run(producers, false));
+            report("getNextTasks", run(producers, true));
+        }
+    }
+
+    private static long run(int producers, boolean batch) throws Exception {
+        final BlockingQueue<NoncancelableTask.Task> queue = new ArrayBlockingQueue<NoncancelableTask.Task>(QUEUE_CAPACITY);
+        final int perProducer = TASKS / producers;
+        ExecutorService exec = Executors.newFixedThreadPool(producers);
+        for (int p = 0; p < producers; p++) {
+            exec.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < perProducer; i++)
+                            queue.put(TASK);
+                    } catch (InterruptedException e) {
+                        /*allow thread to exit*/
+                    }
+                }
+            });
+        }
+        NoncancelableTask consumer = new NoncancelableTask();
+        List<NoncancelableTask.Task> tasks = new ArrayList<NoncancelableTask.Task>(BATCH);
+        long start = System.nanoTime();
+        int consumed = 0;
+        while (consumed < perProducer * producers) {
+            if (batch) {
+                tasks.clear();
+                consumed += consumer.getNextTasks(queue, tasks, BATCH);
+            } else {
+                consumer.getNextTask(queue);
+                consumed++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        exec.shutdown();
+        exec.awaitTermination(10, TimeUnit.SECONDS);
+        return elapsed;
+    }
+
+    private static void report(String consumer, long nanos) {
+        System.out.printf("%-14s %12.0f tasks/s%n", consumer, TASKS * 1e9 / nanos);
+    }
+}
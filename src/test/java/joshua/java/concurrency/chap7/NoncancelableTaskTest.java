@@ -0,0 +1,40 @@
+package joshua.java.concurrency.chap7;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit test for NoncancelableTask's batch dequeue.
+ */
+public class NoncancelableTaskTest extends TestCase {
+
+    private final NoncancelableTask.Task task = new NoncancelableTask.Task() {
+    };
+
+    public void testDrainsUpToMaxTasks() {
+        LinkedBlockingQueue<NoncancelableTask.Task> queue = new LinkedBlockingQueue<NoncancelableTask.Task>();
+        for (int i = 0; i < 10; i++)
+            queue.add(task);
+        List<NoncancelableTask.Task> tasks = new ArrayList<NoncancelableTask.Task>();
+        assertEquals(4, new NoncancelableTask().getNextTasks(queue, tasks, 4));
+        assertEquals(4, tasks.size());
+        assertEquals(6, queue.size());
+    }
+
+    public void testDeadlineAndInterruptRestored() {
+        LinkedBlockingQueue<NoncancelableTask.Task> queue = new LinkedBlockingQueue<NoncancelableTask.Task>();
+        List<NoncancelableTask.Task> tasks = new ArrayList<NoncancelableTask.Task>();
+        Thread.currentThread().interrupt();
+        long start = System.nanoTime();
+        /*the interrupt neither aborts the wait nor restarts it.*/
+        assertEquals(0, new NoncancelableTask().getNextTasks(queue, tasks, 4, 50, TimeUnit.MILLISECONDS));
+        long elapsed = System.nanoTime() - start;
+        assertTrue(Thread.interrupted());
+        assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(45));
+        assertTrue(tasks.isEmpty());
+    }
+}
@@ -0,0 +1,141 @@
+package joshua.java.concurrency.chap7;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit test for PoolSizeController's sizing rules.
+ */
+public class PoolSizeControllerTest extends TestCase {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private NonStandardCancellation.CancellingExecutor exec;
+
+    private PoolSizeController controller;
+
+    @Override
+    protected void setUp() {
+        exec = new NonStandardCancellation().new CancellingExecutor(2, 2, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        controller = new PoolSizeController(exec, 2, 64, 1.0, 100, TimeUnit.MILLISECONDS, 3);
+    }
+
+    @Override
+    protected void tearDown() {
+        exec.shutdownNow();
+    }
+
+    public void testIdlePoolShrinksToMinimum() {
+        assertEquals(2, controller.targetPoolSize(16, 0, SECOND, 0, 0, 0, 0, 0));
+    }
+
+    public void testLittlesLawSizing() {
+        /*100 tasks/s, 100ms each, no backlog: 10 threads busy on average.*/
+        long busy = 100 * SECOND / 10;
+        assertEquals(10, controller.targetPoolSize(4, 0, SECOND, 100, busy, 0, 0, 0));
+    }
+
+    public void testCpuBoundTasksCappedByCores() {
+        int nCpu = Runtime.getRuntime().availableProcessors();
+        long busy = 1000 * SECOND / 10;
+        /*cpu time equals wall time: W/C == 0.*/
+        int target = controller.targetPoolSize(4, 0, SECOND, 1000, busy, busy, 0, 0);
+        assertEquals(Math.max(2, Math.min(64, nCpu)), target);
+    }
+
+    public void testBacklogGrowsPool() {
+        long busy = 100 * SECOND / 10;
+        int steady = controller.targetPoolSize(4, 0, SECOND, 100, busy, 0, 0, 0);
+        int backlogged = controller.targetPoolSize(4, 0, SECOND, 100, busy, 0, 0, 50);
+        assertTrue(backlogged > steady);
+        assertTrue(backlogged <= 64);
+    }
+
+    public void testShrinkNeedsConsecutiveTicks() {
+        exec.setMaximumPoolSize(20);
+        exec.setCorePoolSize(20);
+        PoolSizeController c = new PoolSizeController(exec, 2, 64, 1.0, 100, TimeUnit.MILLISECONDS, 3);
+        c.run();
+        c.run();
+        assertEquals(20, exec.getCorePoolSize());
+        c.run();
+        assertEquals(2, exec.getCorePoolSize());
+        assertEquals(2, exec.getMaximumPoolSize());
+    }
+
+    public void testBusyPoolWithoutCompletionsKeepsItsSize() {
+        /*every worker still inside a long task, nothing queued.*/
+        assertEquals(16, controller.targetPoolSize(16, 16, SECOND, 0, 16 * SECOND, 0, 0, 0));
+        /*only the idle workers may go.*/
+        assertEquals(5, controller.targetPoolSize(16, 5, SECOND, 0, 5 * SECOND, 0, 0, 0));
+    }
+
+    public void testLongCpuBoundTasksWithBacklogCappedByCores() {
+        int nCpu = Runtime.getRuntime().availableProcessors();
+        int capped = Math.max(4, Math.min(64, nCpu));
+        /*4 workers computing for the whole interval, none done yet, 100 tasks waiting.*/
+        assertEquals(capped, controller.targetPoolSize(4, 4, SECOND, 0, 4 * SECOND, 4 * SECOND, 0, 100));
+        /*an interval without a cpu sample keeps the cap measured before.*/
+        assertEquals(capped, controller.targetPoolSize(4, 4, SECOND, 0, 4 * SECOND, 0, 0, 100));
+    }
+
+    public void testLongTasksDoNotShrinkPool() throws Exception {
+        exec.setMaximumPoolSize(8);
+        exec.setCorePoolSize(8);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            block(8, release);
+            PoolSizeController c = new PoolSizeController(exec, 2, 64, 1.0, 100, TimeUnit.MILLISECONDS, 3);
+            for (int i = 0; i < 5; i++) {
+                Thread.sleep(10);
+                c.run();
+            }
+            assertEquals(8, exec.getCorePoolSize());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    public void testStuckLargePoolGrowsPastDeadband() throws Exception {
+        exec.setMaximumPoolSize(20);
+        exec.setCorePoolSize(20);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            block(20, release);
+            PoolSizeController c = new PoolSizeController(exec, 2, 64, 1.0, 100, TimeUnit.MILLISECONDS, 3);
+            /*one task waiting behind 20 stuck workers: growing by one is below the 10% deadband.*/
+            exec.execute(new Runnable() {
+                public void run() {
+                }
+            });
+            c.run();
+            assertEquals(21, exec.getCorePoolSize());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    /**
+     * start n tasks which block until released, and wait until all of them run.
+     */
+    private void block(int n, final CountDownLatch release) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(n);
+        for (int i = 0; i < n; i++) {
+            exec.execute(new Runnable() {
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        started.await();
+    }
+}
@@ -0,0 +1,193 @@
+package joshua.java.concurrency.chap7;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unit test for StoppingThreadBasedService.bulkExecute() and BulkResult.
+ */
+public class StoppingThreadBasedServiceTest extends TestCase {
+
+    private StoppingThreadBasedService service;
+
+    @Override
+    protected void setUp() {
+        service = new StoppingThreadBasedService(2, 4);
+    }
+
+    @Override
+    protected void tearDown() {
+        service.shutdown();
+    }
+
+    public void testResultsAndFailuresByIndex() throws Exception {
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 20; i++) {
+            final int n = i;
+            tasks.add(new Callable<Integer>() {
+                public Integer call() {
+                    if (n % 5 == 0)
+                        throw new IllegalStateException("task " + n);
+                    return n * n;
+                }
+            });
+        }
+        BulkResult<Integer> result = service.bulkExecute(tasks, 10, TimeUnit.SECONDS);
+
+        assertEquals(16, result.getResults().size());
+        assertEquals(4, result.getFailures().size());
+        assertTrue(result.getUnfinished().isEmpty());
+        for (int i = 0; i < 20; i++) {
+            if (i % 5 == 0) {
+                Throwable t = result.getFailures().get(i);
+                assertTrue(t instanceof IllegalStateException);
+                assertEquals("task " + i, t.getMessage());
+                assertFalse(result.getResults().containsKey(i));
+            } else {
+                assertEquals(Integer.valueOf(i * i), result.getResults().get(i));
+            }
+        }
+    }
+
+    public void testDeadlineCancelsAndReportsUnfinished() throws Exception {
+        final AtomicInteger interrupted = new AtomicInteger();
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        tasks.add(constant(0));
+        tasks.add(constant(1));
+        /*never finish by themselves: the first two take both workers, the rest wait in the queue or aren't submitted.*/
+        for (int i = 2; i < 8; i++)
+            tasks.add(sleeper(interrupted));
+        long start = System.nanoTime();
+        BulkResult<Integer> result = service.bulkExecute(tasks, 100, TimeUnit.MILLISECONDS);
+        long elapsed = System.nanoTime() - start;
+
+        assertTrue(elapsed < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(2, result.getResults().size());
+        assertEquals(Arrays.asList(2, 3, 4, 5, 6, 7), result.getUnfinished());
+        /*the two sleepers running at the deadline were interrupted, the queued ones never started.*/
+        waitFor(interrupted, 2);
+        assertEquals(2, interrupted.get());
+    }
+
+    public void testCallerBlocksAtMaxInFlight() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger highestTaken = new AtomicInteger(-1);
+        /*records how far the caller has iterated, i.e. how many tasks it has submitted.*/
+        final List<Callable<Integer>> tasks = new AbstractList<Callable<Integer>>() {
+            @Override
+            public Callable<Integer> get(final int index) {
+                highestTaken.set(Math.max(highestTaken.get(), index));
+                return new Callable<Integer>() {
+                    public Integer call() throws InterruptedException {
+                        release.await();
+                        return index;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return 10;
+            }
+        };
+        final AtomicReference<BulkResult<Integer>> result = new AtomicReference<BulkResult<Integer>>();
+        Thread caller = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    result.set(service.bulkExecute(tasks, 10, TimeUnit.SECONDS));
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+        caller.start();
+        Thread.sleep(200);
+        /*4 tasks in flight, the caller holds the 5th waiting for a permit.*/
+        assertEquals(4, highestTaken.get());
+        assertTrue(caller.isAlive());
+        release.countDown();
+        caller.join(10000);
+        assertEquals(10, result.get().getResults().size());
+    }
+
+    public void testWorkersReusedAcrossCalls() throws Exception {
+        final Set<Thread> workers = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 10; i++) {
+            tasks.add(new Callable<Integer>() {
+                public Integer call() {
+                    workers.add(Thread.currentThread());
+                    return 0;
+                }
+            });
+        }
+        for (int i = 0; i < 5; i++)
+            assertEquals(10, service.bulkExecute(tasks, 10, TimeUnit.SECONDS).getResults().size());
+        assertTrue(workers.size() <= 2);
+    }
+
+    public void testCallerInterruptCancelsSubmittedTasks() throws Exception {
+        final AtomicInteger interrupted = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(2);
+        final List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 2; i++) {
+            tasks.add(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    started.countDown();
+                    return sleeper(interrupted).call();
+                }
+            });
+        }
+        final AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+        Thread caller = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    service.bulkExecute(tasks, 10, TimeUnit.SECONDS);
+                } catch (Throwable t) {
+                    thrown.set(t);
+                }
+            }
+        };
+        caller.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        caller.interrupt();
+        caller.join(5000);
+        assertFalse(caller.isAlive());
+        assertTrue(thrown.get() instanceof InterruptedException);
+        waitFor(interrupted, 2);
+        assertEquals(2, interrupted.get());
+    }
+
+    private static Callable<Integer> constant(final int value) {
+        return new Callable<Integer>() {
+            public Integer call() {
+                return value;
+            }
+        };
+    }
+
+    private static Callable<Integer> sleeper(final AtomicInteger interrupted) {
+        return new Callable<Integer>() {
+            public Integer call() throws InterruptedException {
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                    return -1;
+                } catch (InterruptedException e) {
+                    interrupted.incrementAndGet();
+                    throw e;
+                }
+            }
+        };
+    }
+
+    private static void waitFor(AtomicInteger counter, int value) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (counter.get() < value && System.nanoTime() < deadline)
+            Thread.sleep(10);
+    }
+}
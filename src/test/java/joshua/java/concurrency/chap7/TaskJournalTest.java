@@ -0,0 +1,141 @@
+package joshua.java.concurrency.chap7;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit test for TaskJournal's write and replay.
+ */
+public class TaskJournalTest extends TestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws IOException {
+        file = File.createTempFile("tasks", ".journal");
+        assertTrue(file.delete());
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    public void testReplayInOrderWithoutDuplicates() throws IOException {
+        TaskJournal journal = new TaskJournal(file, new NamedTaskSerializer(), 2);
+        journal.append(TaskJournal.PENDING, new NamedTask("a"));
+        journal.append(TaskJournal.PENDING, new NamedTask("b"));
+        journal.append(TaskJournal.CANCELLED, new NamedTask("c"));
+        journal.append(TaskJournal.PENDING, new NamedTask("a"));
+        journal.flush();
+
+        List<Runnable> tasks = new TaskJournal(file, new NamedTaskSerializer(), 2).replay();
+        assertEquals(3, tasks.size());
+        assertEquals("a", ((NamedTask) tasks.get(0)).name);
+        assertEquals("b", ((NamedTask) tasks.get(1)).name);
+        assertEquals("c", ((NamedTask) tasks.get(2)).name);
+
+        journal.clear();
+        assertTrue(journal.replay().isEmpty());
+    }
+
+    public void testDoneTasksDroppedAndJournalCompacted() throws IOException {
+        TaskJournal journal = new TaskJournal(file, new NamedTaskSerializer(), 16);
+        for (int i = 0; i < 100; i++) {
+            journal.append(TaskJournal.PENDING, new NamedTask("t" + i));
+            if (i != 42)
+                journal.append(TaskJournal.DONE, new NamedTask("t" + i));
+        }
+        journal.append(TaskJournal.PENDING, new NamedTask("t7"));/*resubmitted after it was done*/
+        journal.flush();
+        long before = file.length();
+
+        List<Runnable> tasks = journal.replay();
+        assertEquals(2, tasks.size());
+        assertEquals("t42", ((NamedTask) tasks.get(0)).name);
+        assertEquals("t7", ((NamedTask) tasks.get(1)).name);
+        assertTrue(file.length() < before / 50);
+
+        /*the compacted journal replays the same, and records appended afterwards still count.*/
+        journal.append(TaskJournal.DONE, new NamedTask("t42"));
+        journal.flush();
+        tasks = new TaskJournal(file, new NamedTaskSerializer(), 16).replay();
+        assertEquals(1, tasks.size());
+        assertEquals("t7", ((NamedTask) tasks.get(0)).name);
+    }
+
+    public void testTornRecordEndsReplay() throws IOException {
+        TaskJournal journal = new TaskJournal(file, new NamedTaskSerializer(), 16);
+        journal.append(TaskJournal.PENDING, new NamedTask("kept"));
+        journal.append(TaskJournal.PENDING, new NamedTask("torn"));
+        journal.flush();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 1);
+        } finally {
+            raf.close();
+        }
+        List<Runnable> tasks = journal.replay();
+        assertEquals(1, tasks.size());
+        assertEquals("kept", ((NamedTask) tasks.get(0)).name);
+    }
+
+    public void testFullBatchWrittenInBackground() throws Exception {
+        TaskJournal journal = new TaskJournal(file, new NamedTaskSerializer(), 4);
+        for (int i = 0; i < 4; i++)
+            journal.append(TaskJournal.PENDING, new NamedTask("t" + i));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (file.length() == 0 && System.nanoTime() < deadline)
+            Thread.sleep(1);
+        assertEquals(4, new TaskJournal(file, new NamedTaskSerializer(), 4).replay().size());
+    }
+
+    public void testFailedWriteKeepsRecords() throws IOException {
+        /*a directory in place of the journal: opening it for writing fails.*/
+        assertTrue(file.mkdir());
+        TaskJournal journal = new TaskJournal(file, new NamedTaskSerializer(), 16);
+        journal.append(TaskJournal.PENDING, new NamedTask("a"));
+        try {
+            journal.flush();
+            fail();
+        } catch (IOException expected) {
+        }
+        assertTrue(file.delete());
+        journal.append(TaskJournal.PENDING, new NamedTask("b"));
+        journal.flush();
+
+        List<Runnable> tasks = journal.replay();
+        assertEquals(2, tasks.size());
+        assertEquals("a", ((NamedTask) tasks.get(0)).name);
+        assertEquals("b", ((NamedTask) tasks.get(1)).name);
+    }
+
+    private static class NamedTask implements Runnable {
+        private final String name;
+
+        NamedTask(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+
+    private static class NamedTaskSerializer implements TaskSerializer {
+        @Override
+        public byte[] serialize(Runnable task) {
+            return ((NamedTask) task).name.getBytes();
+        }
+
+        @Override
+        public Runnable deserialize(byte[] descriptor) {
+            return new NamedTask(new String(descriptor));
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package joshua.java.concurrency.chap7;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit test for WebCrawler's journal through TrackingExecutor: a new crawler on the same journal resumes the crawl of
+ * the previous one, after a stop() or a crash.
+ */
+public class WebCrawlerJournalTest extends TestCase {
+
+    /*a binary tree of pages over HOSTS hosts, page n linking to 2n + 1 and 2n + 2.*/
+    private static final int PAGES = 300;
+
+    private static final int HOSTS = 4;
+
+    private File journal;
+
+    @Override
+    protected void setUp() throws IOException {
+        journal = File.createTempFile("crawler", ".journal");
+        assertTrue(journal.delete());
+    }
+
+    @Override
+    protected void tearDown() {
+        journal.delete();
+    }
+
+    public void testStopAndRestartResumes() throws Exception {
+        Set<URL> first = crawledSet();
+        WebCrawler crawler = newCrawler(page(0), journal, first);
+        crawler.start();
+        awaitSize(first, 20);
+        crawler.stop();
+
+        /*a new instance, nothing carried over but the journal.*/
+        Set<URL> second = crawledSet();
+        crawler = newCrawler(new URL("http://elsewhere.test/"), journal, second);
+        crawler.start();
+        assertResumed(first, second);
+        crawler.stop();
+    }
+
+    public void testCrashResumesFromCheckpoint() throws Exception {
+        Set<URL> first = crawledSet();
+        WebCrawler crawler = newCrawler(page(0), journal, first);
+        crawler.start();
+        awaitSize(first, 20);
+        crawler.checkpoint();
+        /*the journal as a crash right after the checkpoint would leave it.*/
+        File crashed = File.createTempFile("crashed", ".journal");
+        try {
+            Files.copy(journal.toPath(), crashed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Set<URL> crawledBeforeCrash = new HashSet<URL>(first);
+            crawler.stop();
+
+            Set<URL> second = crawledSet();
+            crawler = newCrawler(new URL("http://elsewhere.test/"), crashed, second);
+            crawler.start();
+            /*pages crawled after the checkpoint are crawled again, none is lost.*/
+            assertResumed(crawledBeforeCrash, second);
+            crawler.stop();
+        } finally {
+            crashed.delete();
+        }
+    }
+
+    /**
+     * most discovered URLs are spilled to a MappedSegmentQueue, which a new crawler reopens along with the journal.
+     */
+    public void testStopAndRestartWithOverflow() throws Exception {
+        File dir = File.createTempFile("frontier", "");
+        assertTrue(dir.delete());
+        try {
+            Set<URL> first = crawledSet();
+            WebCrawler crawler = newCrawler(page(0), journal, first, overflowFrontier(dir));
+            crawler.start();
+            awaitSize(first, 20);
+            crawler.stop();
+            /*small segments, the spilled URLs span several of them.*/
+            assertTrue(dir.list().length > 1);
+
+            Set<URL> second = crawledSet();
+            crawler = newCrawler(new URL("http://elsewhere.test/"), journal, second, overflowFrontier(dir));
+            crawler.start();
+            assertResumed(first, second);
+            crawler.stop();
+        } finally {
+            for (File f : dir.listFiles())
+                f.delete();
+            dir.delete();
+        }
+    }
+
+    private static CrawlFrontier overflowFrontier(File dir) throws IOException {
+        return new CrawlFrontier(8, 0, TimeUnit.MILLISECONDS, 0, new MappedSegmentQueue(dir, 256));
+    }
+
+    private static void assertResumed(Set<URL> first, Set<URL> second) throws InterruptedException {
+        Set<URL> all = new HashSet<URL>();
+        for (int i = 0; i < PAGES; i++)
+            all.add(page(i));
+        Set<URL> union = crawledSet();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        while (System.nanoTime() < deadline) {
+            union.addAll(first);
+            union.addAll(second);
+            if (union.containsAll(all))
+                break;
+            Thread.sleep(10);
+        }
+        all.removeAll(union);
+        assertTrue("not crawled: " + all, all.isEmpty());
+        /*the root was crawled before the first crawler stopped, its children come from the journal.*/
+        assertFalse(second.contains(page(0)));
+        assertTrue(second.size() < PAGES);
+    }
+
+    private static WebCrawler newCrawler(URL start, File journal, Set<URL> crawled) {
+        return newCrawler(start, journal, crawled, new CrawlFrontier(100000, 0, TimeUnit.MILLISECONDS, 0));
+    }
+
+    private static WebCrawler newCrawler(URL start, File journal, final Set<URL> crawled, CrawlFrontier frontier) {
+        return new WebCrawler(start, journal, new ConcurrentLongHashSet(1 << 16), frontier) {
+            @Override
+            protected List<URL> processpage(URL url) {
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return Collections.emptyList();
+                }
+                crawled.add(url);
+                List<URL> links = new ArrayList<URL>();
+                String path = url.getPath();
+                if (!path.startsWith("/p/"))
+                    return links;
+                int n = Integer.parseInt(path.substring(3));
+                for (int child = 2 * n + 1; child <= 2 * n + 2 && child < PAGES; child++)
+                    links.add(page(child));
+                return links;
+            }
+        };
+    }
+
+    private static Set<URL> crawledSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<URL, Boolean>());
+    }
+
+    private static void awaitSize(Set<URL> set, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (set.size() < size && System.nanoTime() < deadline)
+            Thread.sleep(1);
+        assertTrue(set.size() >= size);
+    }
+
+    private static URL page(int n) {
+        try {
+            return new URL("http://h" + n % HOSTS + ".test/p/" + n);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package joshua.java.concurrency.chap7;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Unit test for WorkStealingCancellingExecutor's cancellation and shutdown semantics.
+ */
+public class WorkStealingCancellingExecutorTest extends TestCase {
+
+    public void testCancellableTaskCancelledThroughFuture() throws Exception {
+        WorkStealingCancellingExecutor exec = new WorkStealingCancellingExecutor(2);
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicBoolean closed = new AtomicBoolean();
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            Future<Void> f = exec.submit(new NonStandardCancellation.CancellableTask<Void>() {
+                @Override
+                public void cancel() {
+                    closed.set(true);
+                    release.countDown();
+                }
+
+                @Override
+                public RunnableFuture<Void> newTask() {
+                    final NonStandardCancellation.CancellableTask<Void> self = this;
+                    return new FutureTask<Void>(this) {
+                        @Override
+                        public boolean cancel(boolean mayInterruptIfRunning) {
+                            self.cancel();
+                            return super.cancel(mayInterruptIfRunning);
+                        }
+                    };
+                }
+
+                @Override
+                public Void call() throws Exception {
+                    started.countDown();
+                    /*stands for a read which ignores interruption.*/
+                    while (release.getCount() > 0) {
+                        try {
+                            release.await();
+                        } catch (InterruptedException ignored) {
+                        }
+                    }
+                    return null;
+                }
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            /*closing the "socket" may let the task return before the FutureTask is cancelled, so either outcome is fine.*/
+            f.cancel(true);
+            assertTrue(closed.get());
+            try {
+                assertNull(f.get(5, TimeUnit.SECONDS));
+            } catch (CancellationException expected) {
+            }
+        } finally {
+            exec.shutdown();
+        }
+        assertTrue(exec.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    public void testShutdownNowReturnsUnstartedTasks() throws Exception {
+        WorkStealingCancellingExecutor exec = new WorkStealingCancellingExecutor(1);
+        final CountDownLatch block = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        exec.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    block.await();
+                } catch (InterruptedException e) {
+                    /*allow thread to exit*/
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; i++)
+            exec.execute(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+        List<Runnable> unstarted = exec.shutdownNow();
+        assertEquals(10, unstarted.size());
+        assertTrue(exec.awaitTermination(5, TimeUnit.SECONDS));
+        try {
+            exec.execute(unstarted.get(0));
+            fail();
+        } catch (RejectedExecutionException expected) {
+        }
+    }
+
+    /**
+     * every task accepted by execute() while shutdown() races with it must run, and the pool still terminate.
+     */
+    public void testShutdownRacingExecute() throws Exception {
+        for (int round = 0; round < 200; round++) {
+            final WorkStealingCancellingExecutor exec = new WorkStealingCancellingExecutor(2);
+            final List<Future<?>> accepted = new CopyOnWriteArrayList<Future<?>>();
+            final CountDownLatch submitting = new CountDownLatch(1);
+            Thread submitter = new Thread() {
+                @Override
+                public void run() {
+                    submitting.countDown();
+                    while (true) {
+                        try {
+                            accepted.add(exec.submit(new Runnable() {
+                                @Override
+                                public void run() {
+                                }
+                            }));
+                        } catch (RejectedExecutionException e) {
+                            return;
+                        }
+                    }
+                }
+            };
+            submitter.start();
+            submitting.await();
+            exec.shutdown();
+            submitter.join();
+            assertTrue(exec.awaitTermination(5, TimeUnit.SECONDS));
+            for (Future<?> f : accepted)
+                assertTrue(f.isDone());
+        }
+    }
+}
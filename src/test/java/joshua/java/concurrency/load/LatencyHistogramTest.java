@@ -0,0 +1,29 @@
+package joshua.java.concurrency.load;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for LatencyHistogram.
+ */
+public class LatencyHistogramTest extends TestCase {
+
+    public void testBucketsCoverEveryValue() {
+        for (long v : new long[]{0, 1, 255, 256, 257, 511, 512, 1000, 123456789L, Long.MAX_VALUE}) {
+            int i = LatencyHistogram.index(v);
+            assertTrue(v <= LatencyHistogram.highestValue(i));
+            assertTrue(i == 0 || v > LatencyHistogram.highestValue(i - 1));
+        }
+    }
+
+    public void testPercentilesWithinPrecision() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long v = 1; v <= 100000; v++)
+            h.record(v * 1000);
+        assertEquals(100000, h.getCount());
+        assertEquals(100000000L, h.getMax());
+        assertEquals(50000000L, h.getValueAtPercentile(50), 50000000L / 128);
+        assertEquals(99000000L, h.getValueAtPercentile(99), 99000000L / 128);
+        assertEquals(99900000L, h.getValueAtPercentile(99.9), 99900000L / 128);
+        assertEquals(100000000L, h.getValueAtPercentile(100));
+    }
+}
@@ -0,0 +1,38 @@
+package joshua.java.concurrency.load;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Unit test for LoadGenerator: a single stall of the component must show in the tail latency, though only one
+ * operation was slow to serve.
+ */
+public class LoadGeneratorTest extends TestCase {
+
+    public void testStallCountedForEveryDelayedOperation() throws InterruptedException {
+        final AtomicBoolean stalled = new AtomicBoolean();
+        Workload stalling = new Workload("stalling", "op") {
+            @Override
+            public int execute(Random rnd) throws InterruptedException {
+                if (stalled.compareAndSet(false, true))
+                    Thread.sleep(200);
+                return 0;
+            }
+        };
+        LoadGenerator generator = new LoadGenerator(0, 1, TimeUnit.SECONDS, 0);
+        generator.add(stalling, 500, 1);
+        generator.run();
+
+        LatencyHistogram latency = generator.getLatency("stalling", "op");
+        /*the schedule holds: all operations were issued, the ones due during the stall late.*/
+        assertEquals(500, latency.getCount(), 5);
+        /*~100 operations were due during the 200ms stall, more than 10%.*/
+        assertTrue(latency.getValueAtPercentile(90) >= TimeUnit.MILLISECONDS.toNanos(10));
+        assertTrue(generator.getServiceTime("stalling", "op").getValueAtPercentile(99)
+                < TimeUnit.MILLISECONDS.toNanos(10));
+        assertNull(generator.getLatency("stalling", "none"));
+    }
+}